@@ -0,0 +1,140 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import solvers.Rule;
+
+/**
+ * For every (column, value) pair of a table, the set of rows having that value, as a CompressedBitmap. The rows covered
+ * by a rule are the intersection of the bitmaps of its non-star values, so counting a rule is an AND plus a popcount
+ * instead of a pass over the table.
+ */
+public class BitmapIndex implements Serializable {
+	final int numRows;
+	final CompressedBitmap[][] bitmaps; // bitmaps[col][val] has the rows with value val in column col.
+	final CompressedBitmap allRows;
+
+	BitmapIndex (int numRows, CompressedBitmap[][] bitmaps) {
+		this.numRows = numRows;
+		this.bitmaps = bitmaps;
+		this.allRows = CompressedBitmap.range(numRows);
+	}
+
+	public static BitmapIndex build (TableInfo table) {
+		final int numColumns = table.dictionary.size();
+		final int numRows = table.numRows();
+		CompressedBitmap[][] bitmaps = new CompressedBitmap[numColumns][];
+		for (int col = 0; col < numColumns; col++) {
+			bitmaps[col] = new CompressedBitmap[table.dictionary.get(col).size()];
+			for (int val = 0; val < bitmaps[col].length; val++) {
+				bitmaps[col][val] = new CompressedBitmap();
+			}
+		}
+		final int[] tuple = new int[numColumns];
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
+			for (int col = 0; col < numColumns; col++) {
+				bitmaps[col][tuple[col]].add(row);
+			}
+		}
+		return new BitmapIndex(numRows, bitmaps);
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public CompressedBitmap get (int col, int val) {
+		return bitmaps[col][val];
+	}
+
+	/**
+	 * Number of rows with value val in column col.
+	 */
+	public int count (int col, int val) {
+		return bitmaps[col][val].cardinality();
+	}
+
+	private static int[] values (Rule rule) {
+		int[] values = new int[rule.length()];
+		for (int col = 0; col < values.length; col++) {
+			values[col] = rule.get(col);
+		}
+		return values;
+	}
+
+	/**
+	 * Bitmaps of the non-star values (those >= 0), smallest first so that intersections shrink as fast as possible.
+	 */
+	private CompressedBitmap[] ruleBitmaps (int[] values) {
+		int size = 0;
+		for (int val : values) {
+			if (val >= 0) {
+				size++;
+			}
+		}
+		CompressedBitmap[] ruleBitmaps = new CompressedBitmap[size];
+		size = 0;
+		for (int col = 0; col < values.length; col++) {
+			final int val = values[col];
+			if (val >= 0) {
+				ruleBitmaps[size++] = bitmaps[col][val];
+			}
+		}
+		if (size > 2) {
+			Arrays.sort(ruleBitmaps, new Comparator<CompressedBitmap>() {
+				@Override
+				public int compare(CompressedBitmap b1, CompressedBitmap b2) {
+					return Integer.compare(b1.cardinality(), b2.cardinality());
+				}
+			});
+		}
+		return ruleBitmaps;
+	}
+
+	/**
+	 * Rows covered by rule. The result may be one of the index's own bitmaps, and must not be modified.
+	 */
+	public CompressedBitmap rowsFor (Rule rule) {
+		return rowsFor(values(rule));
+	}
+
+	/**
+	 * Rows covered by the rule with the given values, -1 being a star.
+	 */
+	public CompressedBitmap rowsFor (int[] values) {
+		final CompressedBitmap[] ruleBitmaps = ruleBitmaps(values);
+		if (ruleBitmaps.length == 0) {
+			return allRows;
+		}
+		CompressedBitmap rows = ruleBitmaps[0];
+		for (int i = 1; i < ruleBitmaps.length; i++) {
+			rows = rows.and(ruleBitmaps[i]);
+		}
+		return rows;
+	}
+
+	/**
+	 * Number of rows covered by rule. The last intersection is only counted, not built.
+	 */
+	public int count (Rule rule) {
+		return count(values(rule));
+	}
+
+	public int count (int[] values) {
+		final CompressedBitmap[] ruleBitmaps = ruleBitmaps(values);
+		if (ruleBitmaps.length == 0) {
+			return numRows;
+		}
+		if (ruleBitmaps.length == 1) {
+			return ruleBitmaps[0].cardinality();
+		}
+		CompressedBitmap rows = ruleBitmaps[0];
+		for (int i = 1; i < ruleBitmaps.length - 1; i++) {
+			rows = rows.and(ruleBitmaps[i]);
+		}
+		return rows.andCardinality(ruleBitmaps[ruleBitmaps.length - 1]);
+	}
+}
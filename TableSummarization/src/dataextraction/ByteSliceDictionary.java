@@ -0,0 +1,108 @@
+package dataextraction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Dictionary of a column, from values given as byte slices to codes 0, 1, 2... in order of first appearance. Lookups hash
+ * and compare the bytes in place, so a value already in the dictionary costs no allocation. The bytes of each value are
+ * kept in one shared array, and only turned into a String when asked for.
+ */
+public class ByteSliceDictionary {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	byte[] bytes; // Bytes of all values, back to back.
+	int numBytes;
+	int[] offsets; // Offset in bytes of each code's value.
+	int[] lengths;
+	int[] hashes;
+	int size;
+	int[] table; // Open-addressing table of code + 1, 0 for an empty slot. Its length is a power of 2.
+
+	public ByteSliceDictionary () {
+		bytes = new byte[1024];
+		offsets = new int[16];
+		lengths = new int[16];
+		hashes = new int[16];
+		table = new int[32];
+	}
+
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Code of the value in [start, end) of buffer, which is added if not already present.
+	 */
+	public int code (ByteBuffer buffer, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+		hash ^= hash >>> 16;
+		final int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			final int code = table[slot] - 1;
+			if (hashes[code] == hash && sliceEquals(code, buffer, start, end)) {
+				return code;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return add(buffer, start, end, hash, slot);
+	}
+
+	private boolean sliceEquals (int code, ByteBuffer buffer, int start, int end) {
+		if (lengths[code] != end - start) {
+			return false;
+		}
+		final int offset = offsets[code] - start;
+		for (int i = start; i < end; i++) {
+			if (bytes[offset + i] != buffer.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int add (ByteBuffer buffer, int start, int end, int hash, int slot) {
+		final int length = end - start;
+		if (numBytes + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, numBytes + length));
+		}
+		for (int i = start; i < end; i++) {
+			bytes[numBytes++] = buffer.get(i);
+		}
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2 * size);
+			lengths = Arrays.copyOf(lengths, 2 * size);
+			hashes = Arrays.copyOf(hashes, 2 * size);
+		}
+		final int code = size++;
+		offsets[code] = numBytes - length;
+		lengths[code] = length;
+		hashes[code] = hash;
+		table[slot] = code + 1;
+		if (2 * size > table.length) {
+			rehash();
+		}
+		return code;
+	}
+
+	private void rehash () {
+		table = new int[2 * table.length];
+		final int mask = table.length - 1;
+		for (int code = 0; code < size; code++) {
+			int slot = hashes[code] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = code + 1;
+		}
+	}
+
+	public String get (int code) {
+		return new String(bytes, offsets[code], lengths[code], UTF8);
+	}
+}
@@ -0,0 +1,146 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar storage for the contents of a table. Each column is a PrimitiveColumn whose width is picked from the
+ * cardinality of the column's dictionary, so there is no boxing and no per-row object.
+ * The first numRows entries of every column are valid, the rest is spare capacity.
+ */
+public class ColumnStore implements Serializable {
+	final PrimitiveColumn[] columns;
+	int numRows;
+
+	public ColumnStore (PrimitiveColumn[] columns, int numRows) {
+		this.columns = columns;
+		this.numRows = numRows;
+	}
+
+	/**
+	 * Builds columnar storage from row-wise contents. dictionary is used to pick the width of each column.
+	 */
+	public static ColumnStore fromRows (List<List<Integer>> contents, List<List<String>> dictionary) {
+		final int numColumns = dictionary.size();
+		final int numRows = contents.size();
+		PrimitiveColumn[] columns = new PrimitiveColumn[numColumns];
+		for (int col = 0; col < numColumns; col++) {
+			columns[col] = PrimitiveColumn.forCardinality(dictionary.get(col).size(), numRows);
+		}
+		int row = 0;
+		for (List<Integer> tuple : contents) {
+			for (int col = 0; col < numColumns; col++) {
+				columns[col].set(row, tuple.get(col));
+			}
+			row++;
+		}
+		return new ColumnStore(columns, numRows);
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public int numColumns () {
+		return columns.length;
+	}
+
+	public PrimitiveColumn getColumn (int col) {
+		return columns[col];
+	}
+
+	public int get (int row, int col) {
+		return columns[col].get(row);
+	}
+
+	/**
+	 * Copies the values of the given row into tuple, which must have length at least numColumns().
+	 */
+	public void fillRow (int row, int[] tuple) {
+		for (int col = 0; col < columns.length; col++) {
+			tuple[col] = columns[col].get(row);
+		}
+	}
+
+	public void setRow (int row, int[] tuple) {
+		for (int col = 0; col < columns.length; col++) {
+			columns[col].set(row, tuple[col]);
+		}
+	}
+
+	/**
+	 * Appends a row. The store must have spare capacity.
+	 */
+	public void addRow (int[] tuple) {
+		setRow(numRows, tuple);
+		numRows++;
+	}
+
+	/**
+	 * Returns a store with only the given columns. Column arrays are shared, not copied.
+	 */
+	public ColumnStore project (List<Integer> columnList) {
+		PrimitiveColumn[] newColumns = new PrimitiveColumn[columnList.size()];
+		for (int i = 0; i < columnList.size(); i++) {
+			newColumns[i] = columns[columnList.get(i)];
+		}
+		return new ColumnStore(newColumns, numRows);
+	}
+
+	/**
+	 * Returns an empty store with room for capacity rows, having the given columns of this store (with the same widths).
+	 */
+	public ColumnStore emptyCopy (List<Integer> columnList, int capacity) {
+		PrimitiveColumn[] newColumns = new PrimitiveColumn[columnList.size()];
+		for (int i = 0; i < columnList.size(); i++) {
+			newColumns[i] = columns[columnList.get(i)].emptyCopy(capacity);
+		}
+		return new ColumnStore(newColumns, 0);
+	}
+
+	/**
+	 * Number of bytes taken up by the column arrays.
+	 */
+	public long sizeInBytes () {
+		long size = 0;
+		for (PrimitiveColumn column : columns) {
+			size += (long) column.capacity() * column.width();
+		}
+		return size;
+	}
+
+	/**
+	 * A read-only List<List<Integer>> view of the rows, for code that still walks TableInfo.contents. Every get boxes a
+	 * fresh row, so hot paths should use fillRow instead.
+	 */
+	public List<List<Integer>> rowView () {
+		return new RowView(this);
+	}
+
+	static class RowView extends AbstractList<List<Integer>> implements Serializable {
+		final ColumnStore store;
+
+		RowView (ColumnStore store) {
+			this.store = store;
+		}
+
+		@Override
+		public List<Integer> get (int row) {
+			if (row < 0 || row >= store.numRows) {
+				throw new IndexOutOfBoundsException("Row " + row + " of " + store.numRows);
+			}
+			List<Integer> tuple = new ArrayList<Integer>(store.columns.length);
+			for (int col = 0; col < store.columns.length; col++) {
+				tuple.add(store.columns[col].get(row));
+			}
+			return tuple;
+		}
+
+		@Override
+		public int size () {
+			return store.numRows;
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints (row ids), in the style of Roaring bitmaps. Values are split by their high 16 bits
+ * into chunks. A chunk with at most ARRAY_MAX values keeps them as a sorted char array, a denser chunk keeps a plain
+ * 65536 bit bitmap. Bitmaps are built by appending values in increasing order, and are not modified after that.
+ */
+public class CompressedBitmap implements Serializable {
+	static final int ARRAY_MAX = 4096;
+
+	char[] keys; // High 16 bits of the values in each chunk, in increasing order.
+	Container[] containers;
+	int numContainers;
+
+	public CompressedBitmap () {
+		keys = new char[4];
+		containers = new Container[4];
+		numContainers = 0;
+	}
+
+	/**
+	 * Bitmap containing 0 to n - 1.
+	 */
+	public static CompressedBitmap range (int n) {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (int i = 0; i < n; i++) {
+			bitmap.add(i);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Adds a value. Values must be added in increasing order.
+	 */
+	public void add (int value) {
+		final char key = (char) (value >>> 16);
+		final char low = (char) value;
+		if (numContainers == 0 || keys[numContainers - 1] != key) {
+			if (numContainers > 0 && keys[numContainers - 1] > key) {
+				throw new IllegalArgumentException("Values must be added in increasing order");
+			}
+			appendContainer(key, new ArrayContainer());
+		}
+		final int last = numContainers - 1;
+		containers[last] = containers[last].append(low);
+	}
+
+	private void appendContainer (char key, Container container) {
+		if (numContainers == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * keys.length);
+			containers = Arrays.copyOf(containers, 2 * containers.length);
+		}
+		keys[numContainers] = key;
+		containers[numContainers] = container;
+		numContainers++;
+	}
+
+	public int cardinality () {
+		int cardinality = 0;
+		for (int i = 0; i < numContainers; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean contains (int value) {
+		final int i = Arrays.binarySearch(keys, 0, numContainers, (char) (value >>> 16));
+		return i >= 0 && containers[i].contains((char) value);
+	}
+
+	public CompressedBitmap and (CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < numContainers && j < other.numContainers) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				final Container container = containers[i].and(other.containers[j]);
+				if (container.cardinality() > 0) {
+					result.appendContainer(keys[i], container);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cardinality of the intersection, without building it.
+	 */
+	public int andCardinality (CompressedBitmap other) {
+		int cardinality = 0;
+		int i = 0;
+		int j = 0;
+		while (i < numContainers && j < other.numContainers) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				cardinality += containers[i].andCardinality(other.containers[j]);
+				i++;
+				j++;
+			}
+		}
+		return cardinality;
+	}
+
+	public CompressedBitmap or (CompressedBitmap other) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < numContainers || j < other.numContainers) {
+			if (j == other.numContainers || (i < numContainers && keys[i] < other.keys[j])) {
+				result.appendContainer(keys[i], containers[i]);
+				i++;
+			} else if (i == numContainers || keys[i] > other.keys[j]) {
+				result.appendContainer(other.keys[j], other.containers[j]);
+				j++;
+			} else {
+				result.appendContainer(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The values, in increasing order.
+	 */
+	public int[] toArray () {
+		int[] values = new int[cardinality()];
+		int offset = 0;
+		for (int i = 0; i < numContainers; i++) {
+			offset = containers[i].fill(values, offset, keys[i] << 16);
+		}
+		return values;
+	}
+
+	/**
+	 * A chunk of a bitmap. The results of and/or may share containers with their inputs, so a container is never changed
+	 * once its bitmap has been built.
+	 */
+	abstract static class Container implements Serializable {
+		abstract int cardinality ();
+
+		abstract boolean contains (char low);
+
+		/**
+		 * Adds a value larger than all current ones. May return a different container.
+		 */
+		abstract Container append (char low);
+
+		abstract Container and (Container other);
+
+		abstract int andCardinality (Container other);
+
+		abstract Container or (Container other);
+
+		/**
+		 * Writes high | value for each value into out from offset, returns the offset after the last one written.
+		 */
+		abstract int fill (int[] out, int offset, int high);
+	}
+
+	static final class ArrayContainer extends Container {
+		char[] values;
+		int cardinality;
+
+		ArrayContainer () {
+			values = new char[4];
+		}
+
+		ArrayContainer (char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality () {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains (char low) {
+			return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+		}
+
+		@Override
+		Container append (char low) {
+			if (cardinality == ARRAY_MAX) {
+				BitmapContainer bitmap = toBitmap();
+				return bitmap.append(low);
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(2 * values.length, ARRAY_MAX));
+			}
+			values[cardinality++] = low;
+			return this;
+		}
+
+		BitmapContainer toBitmap () {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				bitmap.words[values[i] >>> 6] |= 1L << values[i];
+			}
+			bitmap.cardinality = cardinality;
+			return bitmap;
+		}
+
+		@Override
+		Container and (Container other) {
+			char[] result = new char[Math.min(cardinality, other.cardinality())];
+			int size = 0;
+			if (other instanceof ArrayContainer) {
+				final ArrayContainer array = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < array.cardinality) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						result[size++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				final BitmapContainer bitmap = (BitmapContainer) other;
+				for (int i = 0; i < cardinality; i++) {
+					if (bitmap.contains(values[i])) {
+						result[size++] = values[i];
+					}
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		@Override
+		int andCardinality (Container other) {
+			int size = 0;
+			if (other instanceof ArrayContainer) {
+				final ArrayContainer array = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < array.cardinality) {
+					if (values[i] < array.values[j]) {
+						i++;
+					} else if (values[i] > array.values[j]) {
+						j++;
+					} else {
+						size++;
+						i++;
+						j++;
+					}
+				}
+			} else {
+				final BitmapContainer bitmap = (BitmapContainer) other;
+				for (int i = 0; i < cardinality; i++) {
+					if (bitmap.contains(values[i])) {
+						size++;
+					}
+				}
+			}
+			return size;
+		}
+
+		@Override
+		Container or (Container other) {
+			if (other instanceof BitmapContainer) {
+				return other.or(this);
+			}
+			final ArrayContainer array = (ArrayContainer) other;
+			if (cardinality + array.cardinality > ARRAY_MAX) {
+				return toBitmap().or(other);
+			}
+			char[] result = new char[cardinality + array.cardinality];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < array.cardinality) {
+				if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+					result[size++] = values[i++];
+				} else if (i == cardinality || values[i] > array.values[j]) {
+					result[size++] = array.values[j++];
+				} else {
+					result[size++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		@Override
+		int fill (int[] out, int offset, int high) {
+			for (int i = 0; i < cardinality; i++) {
+				out[offset++] = high | values[i];
+			}
+			return offset;
+		}
+	}
+
+	static final class BitmapContainer extends Container {
+		final long[] words = new long[1024];
+		int cardinality;
+
+		@Override
+		int cardinality () {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains (char low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		Container append (char low) {
+			words[low >>> 6] |= 1L << low;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		Container and (Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			final BitmapContainer bitmap = (BitmapContainer) other;
+			BitmapContainer result = new BitmapContainer();
+			int size = 0;
+			for (int i = 0; i < words.length; i++) {
+				result.words[i] = words[i] & bitmap.words[i];
+				size += Long.bitCount(result.words[i]);
+			}
+			result.cardinality = size;
+			if (size > ARRAY_MAX) {
+				return result;
+			}
+			char[] values = new char[size];
+			result.fill(values);
+			return new ArrayContainer(values, size);
+		}
+
+		@Override
+		int andCardinality (Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.andCardinality(this);
+			}
+			final BitmapContainer bitmap = (BitmapContainer) other;
+			int size = 0;
+			for (int i = 0; i < words.length; i++) {
+				size += Long.bitCount(words[i] & bitmap.words[i]);
+			}
+			return size;
+		}
+
+		@Override
+		Container or (Container other) {
+			BitmapContainer result = new BitmapContainer();
+			System.arraycopy(words, 0, result.words, 0, words.length);
+			if (other instanceof ArrayContainer) {
+				final ArrayContainer array = (ArrayContainer) other;
+				for (int i = 0; i < array.cardinality; i++) {
+					result.words[array.values[i] >>> 6] |= 1L << array.values[i];
+				}
+			} else {
+				final BitmapContainer bitmap = (BitmapContainer) other;
+				for (int i = 0; i < words.length; i++) {
+					result.words[i] |= bitmap.words[i];
+				}
+			}
+			int size = 0;
+			for (int i = 0; i < words.length; i++) {
+				size += Long.bitCount(result.words[i]);
+			}
+			result.cardinality = size;
+			return result;
+		}
+
+		private void fill (char[] values) {
+			int size = 0;
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[size++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		int fill (int[] out, int offset, int high) {
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					out[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return offset;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import solvers.Rule;
+
+/**
+ * Dense group-by count cubes over groups of low-cardinality columns. Columns are put in groups, lowest cardinality first,
+ * while the product of their cardinalities plus one stays within maxCells. Each group has a cube with a cell for every
+ * combination of its columns' values or stars (the star of a column being value cardinality), holding the number of rows
+ * matching it. The count of a rule whose non-star columns are all in one group is then a single cell, and for any rule,
+ * the cells of its projections on the groups bound its count. Columns too large for any group are in group -1.
+ */
+public class CountCube implements Serializable {
+	final int[] cardinality;
+	final int[] group; // Group of each column, -1 if it is in none.
+	final int[] stride; // Stride of each column in its group's cube.
+	final int[][] groupColumns;
+	final int[][] cells; // cells[g] is the cube of group g.
+	final int total; // Number of rows of the table, for the rule of all stars, which is in no group.
+
+	CountCube (int[] cardinality, int[] group, int[] stride, int[][] groupColumns, int[][] cells, int total) {
+		this.cardinality = cardinality;
+		this.group = group;
+		this.stride = stride;
+		this.groupColumns = groupColumns;
+		this.cells = cells;
+		this.total = total;
+	}
+
+	public static CountCube build (TableInfo table, int maxCells) {
+		final int numColumns = table.dictionary.size();
+		final int[] cardinality = new int[numColumns];
+		Integer[] order = new Integer[numColumns];
+		for (int col = 0; col < numColumns; col++) {
+			cardinality[col] = table.dictionary.get(col).size();
+			order[col] = col;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare (Integer col1, Integer col2) {
+				return cardinality[col1] != cardinality[col2] ? cardinality[col1] - cardinality[col2] : col1 - col2;
+			}
+		});
+		final int[] group = new int[numColumns];
+		final int[] stride = new int[numColumns];
+		List<Integer> groupCells = new ArrayList<Integer>();
+		long numCells = maxCells + 1L;
+		for (int col : order) {
+			final long size = cardinality[col] + 1L;
+			if (size > maxCells) {
+				group[col] = -1;
+				continue;
+			}
+			if (numCells * size > maxCells) {
+				groupCells.add(1);
+				numCells = 1;
+			}
+			group[col] = groupCells.size() - 1;
+			stride[col] = (int) numCells;
+			numCells *= size;
+			groupCells.set(group[col], (int) numCells);
+		}
+		final int numGroups = groupCells.size();
+		int[][] groupColumns = new int[numGroups][];
+		int[][] cells = new int[numGroups][];
+		for (int g = 0; g < numGroups; g++) {
+			int size = 0;
+			for (int col = 0; col < numColumns; col++) {
+				if (group[col] == g) {
+					size++;
+				}
+			}
+			groupColumns[g] = new int[size];
+			size = 0;
+			for (int col = 0; col < numColumns; col++) {
+				if (group[col] == g) {
+					groupColumns[g][size++] = col;
+				}
+			}
+			cells[g] = new int[groupCells.get(g)];
+		}
+
+		final int numRows = table.numRows();
+		final int[] tuple = new int[numColumns];
+		int total = 0;
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
+			final int weight = table.weight(row);
+			total += weight;
+			for (int g = 0; g < numGroups; g++) {
+				int cell = 0;
+				for (int col : groupColumns[g]) {
+					cell += tuple[col] * stride[col];
+				}
+				cells[g][cell] += weight;
+			}
+		}
+		// Fills in the star cells one column at a time: the star of a column is the sum over its values, with the other
+		// columns' coordinates (stars included, for columns already done) fixed.
+		for (int g = 0; g < numGroups; g++) {
+			final int[] cube = cells[g];
+			for (int col : groupColumns[g]) {
+				final int star = cardinality[col];
+				for (int cell = 0; cell < cube.length; cell++) {
+					if ((cell / stride[col]) % (star + 1) == star) {
+						final int first = cell - star * stride[col];
+						for (int val = 0; val < star; val++) {
+							cube[cell] += cube[first + val * stride[col]];
+						}
+					}
+				}
+			}
+		}
+		return new CountCube(cardinality, group, stride, groupColumns, cells, total);
+	}
+
+	/**
+	 * Group holding all the non-star columns of values, -2 if there is none (i.e. they are in different groups, or in group
+	 * -1), or -1 if values has no non-star column.
+	 */
+	public int groupOf (int[] values) {
+		int valuesGroup = -1;
+		for (int col = 0; col < values.length; col++) {
+			if (values[col] != -1) {
+				if (group[col] == -1 || (valuesGroup != -1 && group[col] != valuesGroup)) {
+					return -2;
+				}
+				valuesGroup = group[col];
+			}
+		}
+		return valuesGroup;
+	}
+
+	/**
+	 * Is the count of the rule with the given values (-1 for stars) in the cube.
+	 */
+	public boolean covers (int[] values) {
+		return groupOf(values) != -2;
+	}
+
+	/**
+	 * Is the count of every single value rule in the cube.
+	 */
+	public boolean coversColumns () {
+		for (int g : group) {
+			if (g == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Number of rows matching the projection of values on group g.
+	 */
+	private int projectionCount (int[] values, int g) {
+		int cell = 0;
+		for (int col : groupColumns[g]) {
+			cell += (values[col] == -1 ? cardinality[col] : values[col]) * stride[col];
+		}
+		return cells[g][cell];
+	}
+
+	/**
+	 * Count of the rule with the given values, which the cube must cover.
+	 */
+	public int count (int[] values) {
+		final int g = groupOf(values);
+		return g == -1 ? total : projectionCount(values, g);
+	}
+
+	/**
+	 * Number of rows with value val in column col, which must be in a group.
+	 */
+	public int count (int col, int val) {
+		final int g = group[col];
+		int cell = val * stride[col];
+		for (int c : groupColumns[g]) {
+			if (c != col) {
+				cell += cardinality[c] * stride[c];
+			}
+		}
+		return cells[g][cell];
+	}
+
+	/**
+	 * Least count of the projections of the rule with the given values on the groups, which is its count if the cube
+	 * covers it. Integer.MAX_VALUE if no group has a non-star column of the rule.
+	 */
+	public int countUpperBound (int[] values) {
+		int maxCount = Integer.MAX_VALUE;
+		for (int g = 0; g < groupColumns.length; g++) {
+			for (int col : groupColumns[g]) {
+				if (values[col] != -1) {
+					maxCount = Math.min(maxCount, projectionCount(values, g));
+					break;
+				}
+			}
+		}
+		return maxCount;
+	}
+
+	public boolean covers (Rule rule) {
+		return covers(values(rule));
+	}
+
+	public int count (Rule rule) {
+		return count(values(rule));
+	}
+
+	public int countUpperBound (Rule rule) {
+		return countUpperBound(values(rule));
+	}
+
+	private static int[] values (Rule rule) {
+		int[] values = new int[rule.length()];
+		for (int col = 0; col < values.length; col++) {
+			values[col] = rule.get(col);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,103 @@
+package dataextraction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits a line of a byte buffer into fields in a single pass, recording where each field starts and ends instead of
+ * copying it out. With quoting on, a field starting with a double quote runs to the matching closing quote, so it may
+ * contain separators, and a doubled quote inside it stands for one quote character. The bounds of a quoted field exclude
+ * the quotes, and unescape gives its value for the (rare) fields containing doubled quotes.
+ * As with String.split, trailing empty fields are dropped.
+ */
+public class CsvTokenizer {
+	final byte separator;
+	final boolean quoted;
+	public int numFields;
+	public int[] starts; // Start (inclusive) in the buffer of each field of the last line tokenized.
+	public int[] ends; // End (exclusive) of each field.
+	public boolean[] escaped; // Whether each field contains doubled quotes, which unescape must collapse.
+
+	public CsvTokenizer (char separator, boolean quoted) {
+		this.separator = (byte) separator;
+		this.quoted = quoted;
+		starts = new int[16];
+		ends = new int[16];
+		escaped = new boolean[16];
+	}
+
+	/**
+	 * Tokenizes the line in [start, end) of buffer, end excluding the line terminator. Returns the number of fields.
+	 */
+	public int tokenize (ByteBuffer buffer, int start, int end) {
+		numFields = 0;
+		int position = start;
+		while (true) {
+			int fieldStart = position;
+			int fieldEnd;
+			boolean fieldEscaped = false;
+			int i = position;
+			if (quoted && i < end && buffer.get(i) == '"') {
+				fieldStart = ++i;
+				while (i < end) {
+					if (buffer.get(i) == '"') {
+						if (i + 1 < end && buffer.get(i + 1) == '"') {
+							fieldEscaped = true;
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				fieldEnd = i;
+				// Anything between the closing quote and the next separator is ignored.
+				while (i < end && buffer.get(i) != separator) {
+					i++;
+				}
+			} else {
+				while (i < end && buffer.get(i) != separator) {
+					i++;
+				}
+				fieldEnd = i;
+			}
+			addField(fieldStart, fieldEnd, fieldEscaped);
+			if (i >= end) {
+				break;
+			}
+			position = i + 1;
+		}
+		while (numFields > 0 && starts[numFields - 1] == ends[numFields - 1]) {
+			numFields--;
+		}
+		return numFields;
+	}
+
+	private void addField (int start, int end, boolean fieldEscaped) {
+		if (numFields == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * numFields);
+			ends = Arrays.copyOf(ends, 2 * numFields);
+			escaped = Arrays.copyOf(escaped, 2 * numFields);
+		}
+		starts[numFields] = start;
+		ends[numFields] = end;
+		escaped[numFields] = fieldEscaped;
+		numFields++;
+	}
+
+	/**
+	 * The bytes of the given field of the last line tokenized, with doubled quotes collapsed.
+	 */
+	public ByteBuffer unescape (ByteBuffer buffer, int field) {
+		byte[] bytes = new byte[ends[field] - starts[field]];
+		int length = 0;
+		for (int i = starts[field]; i < ends[field]; i++) {
+			final byte b = buffer.get(i);
+			bytes[length++] = b;
+			if (b == '"') {
+				i++;
+			}
+		}
+		return ByteBuffer.wrap(bytes, 0, length);
+	}
+}
@@ -2,14 +2,11 @@ package dataextraction;
 
 import static java.lang.System.out;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,6 +15,7 @@ import java.util.Map;
 
 public class Donations {
 	
+	final static String TABLEFILE = "TestDatasets/contribs_big/contributions.reduced.fec.2014.tbl";
 	final static String SERIALIZEDTABLEINFO = "TestDatasets/contribs_big/contributions.reduced.fec.2014.ser";
 	
 	final static String CONTRIBSSMALLFILELOCATION = "TestDatasets/contribs_big/contributions.reduced.fec.2014.csv";
@@ -111,63 +109,11 @@ List<Map<String, String>> names = new ArrayList<Map<String, String>>();
 		table.names = names;
 	}
 	
+	/**
+	 * Quoted fields may contain commas, and are stored without their quotes.
+	 */
 	public static TableInfo parseData(String inputFile, Double sampleProb) throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(inputFile));
-		List<List<String>> dictionary = new ArrayList<List<String>>();
-		List<Map<String, Integer>> reverseDictionary = new ArrayList<Map<String, Integer>>();
-		List<List<Integer>> contents = new ArrayList<List<Integer>>();
-		String line = br.readLine();
-		{
-			String[] vals = line.split(",");
-			for (int i = 0; i < vals.length; i++) {
-				dictionary.add(new ArrayList<String>());
-				reverseDictionary.add(new HashMap<String, Integer>());
-				out.println(i + "  :  " + vals[i]);
-			}
-		}
-	
-		line = br.readLine(); // ignore first line since its column names.
-		do {
-			//out.println(line);
-			if (Math.random() > sampleProb) {
-				continue;
-			}
-			boolean inQuote = false;
-			for (int i = 0; i < line.length(); i++) {
-				if (line.charAt(i) == '\"') {
-					inQuote = inQuote ^ true;
-					continue;
-				}
-				if (inQuote && line.charAt(i) == ',') {
-					line= line.substring(0,i) + ' ' + line.substring(i + 1);
-				}
-			}
-			String[] vals = line.split(",");
-			if (vals.length > dictionary.size()) {
-				continue;
-			}
-			List<Integer> tuple = new ArrayList<Integer>(vals.length);
-			for (int i = 0; i < vals.length; i++) {
-				final String value = vals[i];
-				/*if (value.equals("03")) {
-					out.println(line);
-					System.exit(1);
-				}*/
-				Map<String, Integer> columnDictionary = reverseDictionary.get(i);
-				if (columnDictionary.containsKey(value)) {
-					tuple.add(columnDictionary.get(value));
-				} else {
-					columnDictionary.put(value, columnDictionary.keySet().size());
-					dictionary.get(i).add(value);
-					tuple.add(columnDictionary.get(value));
-				}
-			}
-			contents.add(tuple);
-		} while ((line = br.readLine()) != null);
-		
-		br.close();
-		
-		TableInfo table = new TableInfo(dictionary, reverseDictionary, contents);
+		TableInfo table = ParallelCsvLoader.load(inputFile, ',', true, true, sampleProb);
 		addNames(table);
 		return table;
 	}
@@ -199,21 +145,35 @@ List<Map<String, String>> names = new ArrayList<Map<String, String>>();
 		pw.close();
 	}
 	
-	public static void main(String[] args) throws IOException, ClassNotFoundException {
+	/**
+	 * Opens TABLEFILE, writing it from the serialized table first if it is not there yet. The table is written compressed
+	 * (see TableInfo.compressDuplicates), since its few low-cardinality columns repeat the same tuples over many rows.
+	 */
+	public static TableInfo openTable () throws IOException {
+		if (!new File(TABLEFILE).exists()) {
+			ObjectInputStream oi = new ObjectInputStream(new FileInputStream(SERIALIZEDTABLEINFO));
+			try {
+				final TableInfo table = (TableInfo) oi.readObject();
+				table.compressDuplicates();
+				TableFile.write(table, TABLEFILE);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				oi.close();
+			}
+		}
+		return TableFile.open(TABLEFILE);
+	}
+	
+	public static void main(String[] args) throws IOException {
 		boolean createTI = false;
 		TableInfo ti;
 		
 		if(createTI) {
 			ti = parseData(CONTRIBSSMALLFILELOCATION, 1.0);
-			FileOutputStream fo = new FileOutputStream(SERIALIZEDTABLEINFO);
-			ObjectOutputStream oo = new ObjectOutputStream(fo);
-			oo.writeObject(ti);			
-			oo.close();
+			TableFile.write(ti, TABLEFILE);
 		} else {
-			FileInputStream fi = new FileInputStream(SERIALIZEDTABLEINFO);
-			ObjectInputStream oi = new ObjectInputStream(fi);
-			ti = (TableInfo) oi.readObject();
-			oi.close();
+			ti = openTable();
 		}
 		
 	}
@@ -2,13 +2,7 @@ package dataextraction;
 
 import static java.lang.System.out;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -186,44 +180,7 @@ public class Marketing {
 	}
 	
 	public static TableInfo parseData() throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(DATAFILELOCATION));
-		List<List<String>> dictionary = new ArrayList<List<String>>();
-		List<Map<String, Integer>> reverseDictionary = new ArrayList<Map<String, Integer>>();
-		List<List<Integer>> contents = new ArrayList<List<Integer>>();
-		
-		String line = br.readLine();
-		{
-			String[] vals = line.split(" ");
-			for (int i = 0; i < vals.length; i++) {
-				dictionary.add(new ArrayList<String>());
-				reverseDictionary.add(new HashMap<String, Integer>());
-			}
-		}
-	
-		do {
-			String[] vals = line.split(" ");
-			List<Integer> tuple = new ArrayList<Integer>(vals.length);
-			for (int i = 0; i < vals.length; i++) {
-				final String value = vals[i];
-				/*if (value.equals("03")) {
-					out.println(line);
-					System.exit(1);
-				}*/
-				Map<String, Integer> columnDictionary = reverseDictionary.get(i);
-				if (columnDictionary.containsKey(value)) {
-					tuple.add(columnDictionary.get(value));
-				} else {
-					columnDictionary.put(value, columnDictionary.keySet().size());
-					dictionary.get(i).add(value);
-					tuple.add(columnDictionary.get(value));
-				}
-			}
-			contents.add(tuple);
-		} while ((line = br.readLine()) != null);
-		
-		br.close();
-		
-		TableInfo table = new TableInfo(dictionary, reverseDictionary, contents);
+		TableInfo table = ParallelCsvLoader.load(DATAFILELOCATION, ' ', false, false, 1.0);
 		addNames(table);
 		return table;
 	}
@@ -231,16 +188,12 @@ public class Marketing {
 	public static void main(String[] args) throws IOException, ClassNotFoundException {
 		boolean createTable = true;
 		TableInfo fullTable = null;
-		String tableFile = "TestDatasets/Marketing/marketing.data.ser";
+		String tableFile = "TestDatasets/Marketing/marketing.data.tbl";
 		if (createTable) {
 			fullTable = Marketing.parseData();
-			ObjectOutputStream oo = new ObjectOutputStream(new FileOutputStream(tableFile));
-			oo.writeObject(fullTable);
-			oo.close();
+			TableFile.write(fullTable, tableFile);
 		} else {
-			ObjectInputStream oi = new ObjectInputStream(new FileInputStream(tableFile));
-			fullTable = (TableInfo) oi.readObject();
-			oi.close();
+			fullTable = TableFile.open(tableFile);
 		}
 		if(1!=2) return;
 		//out.println(System.currentTimeMillis() - timer);
@@ -251,7 +204,6 @@ public class Marketing {
 		}
 		TableInfo table = fullTable.getSubTable(columns);
 		Integer ruleNums = Integer.parseInt(args[0]); 
-		Integer maxRuleScore = Integer.parseInt(args[1]); // program input
 		final Scorer scorer; // program input
 		switch(args[2]) {
 			case "Size" :
@@ -331,6 +283,10 @@ public class Marketing {
 				rule.score = tempRule.score;
 			}
 		};
+		Integer maxRuleScore = Integer.parseInt(args[1]); // program input
+		if (args.length > 5 && args[5].equals("auto")) {
+			maxRuleScore = NonStarCountSolvers.estimateMaxRuleScore(table, rule, ruleNums, modifiedScorer, -1, maxRuleScore).maxRuleScore;
+		}
 		int minSampleSize = Integer.MAX_VALUE;
 		int capacity = Integer.MAX_VALUE;
 		SampleHandler sampleHandler = new SampleHandler(table, capacity, minSampleSize);
@@ -0,0 +1,127 @@
+package dataextraction;
+
+import java.io.Serializable;
+
+import solvers.Rule;
+
+/**
+ * Bit-packed encoding of the rows of a table. Each column gets ceil(log2(|dictionary|)) bits, and the columns of a row
+ * are laid out in one or more longs (wordsPerRow), without a column ever straddling two words. Most of our tables fit a
+ * row into a single long.
+ * A rule is encoded as a mask (all bits of its non-star columns) and bits (its values in those positions), so that a
+ * row is covered by the rule iff (row & mask) == bits, word by word.
+ */
+public class PackedRows implements Serializable {
+	final int numRows;
+	final int wordsPerRow;
+	final int[] columnWord; // Index of the word (within a row) holding each column.
+	final int[] columnShift; // Bit offset of each column within its word.
+	final long[] columnMask; // Unshifted mask of each column's bits.
+	final long[] words; // numRows * wordsPerRow longs, row-major.
+
+	PackedRows (int numRows, int[] bitsPerColumn) {
+		final int numColumns = bitsPerColumn.length;
+		this.numRows = numRows;
+		columnWord = new int[numColumns];
+		columnShift = new int[numColumns];
+		columnMask = new long[numColumns];
+		int word = 0;
+		int shift = 0;
+		for (int col = 0; col < numColumns; col++) {
+			final int bits = bitsPerColumn[col];
+			if (shift + bits > 64) {
+				word++;
+				shift = 0;
+			}
+			columnWord[col] = word;
+			columnShift[col] = shift;
+			columnMask[col] = bits == 64 ? -1L : (1L << bits) - 1;
+			shift += bits;
+		}
+		wordsPerRow = word + 1;
+		words = new long[numRows * wordsPerRow];
+	}
+
+	/**
+	 * Number of bits needed to store codes 0 to cardinality - 1.
+	 */
+	static int bitsFor (int cardinality) {
+		return cardinality <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(cardinality - 1);
+	}
+
+	public static PackedRows pack (TableInfo table) {
+		final int numColumns = table.dictionary.size();
+		final int numRows = table.numRows();
+		int[] bitsPerColumn = new int[numColumns];
+		for (int col = 0; col < numColumns; col++) {
+			bitsPerColumn[col] = bitsFor(table.dictionary.get(col).size());
+		}
+		PackedRows packedRows = new PackedRows(numRows, bitsPerColumn);
+		final int[] tuple = new int[numColumns];
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
+			packedRows.setRow(row, tuple);
+		}
+		return packedRows;
+	}
+
+	void setRow (int row, int[] tuple) {
+		final int offset = row * wordsPerRow;
+		for (int w = 0; w < wordsPerRow; w++) {
+			words[offset + w] = 0;
+		}
+		for (int col = 0; col < tuple.length; col++) {
+			words[offset + columnWord[col]] |= ((long) tuple[col]) << columnShift[col];
+		}
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public int wordsPerRow () {
+		return wordsPerRow;
+	}
+
+	/**
+	 * The packed words of all rows, row-major. Row r occupies words r * wordsPerRow() to (r + 1) * wordsPerRow() - 1.
+	 */
+	public long[] words () {
+		return words;
+	}
+
+	public int get (int row, int col) {
+		return (int) ((words[row * wordsPerRow + columnWord[col]] >>> columnShift[col]) & columnMask[col]);
+	}
+
+	/**
+	 * Writes the encoding of rule into mask and bits, starting at offset. Both arrays need wordsPerRow() longs from offset.
+	 */
+	public void encodeRule (Rule rule, long[] mask, long[] bits, int offset) {
+		for (int w = 0; w < wordsPerRow; w++) {
+			mask[offset + w] = 0;
+			bits[offset + w] = 0;
+		}
+		final int length = rule.length();
+		for (int col = 0; col < length; col++) {
+			final int val = rule.get(col);
+			if (val >= 0) {
+				mask[offset + columnWord[col]] |= columnMask[col] << columnShift[col];
+				bits[offset + columnWord[col]] |= ((long) val) << columnShift[col];
+			}
+		}
+	}
+
+	/**
+	 * Is the row covered by the rule encoded at ruleOffset of mask and bits.
+	 */
+	public boolean matches (int row, long[] mask, long[] bits, int ruleOffset) {
+		final int rowOffset = row * wordsPerRow;
+		for (int w = 0; w < wordsPerRow; w++) {
+			if ((words[rowOffset + w] & mask[ruleOffset + w]) != bits[ruleOffset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
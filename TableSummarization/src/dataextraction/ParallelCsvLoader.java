@@ -0,0 +1,263 @@
+package dataextraction;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a delimited text file into a columnar TableInfo on several threads. The file is cut into byte ranges at line
+ * boundaries, and the ranges (chunks) are parsed on a fork-join pool, each with its own dictionary per column, so parsing
+ * threads share nothing. The chunk dictionaries are then merged in file order, which gives every value the same code a
+ * sequential first-seen parse would, and a last parallel pass remaps each chunk's codes into the table's columns.
+ * Lines are split by a CsvTokenizer and values are looked up in ByteSliceDictionary's, so a value already seen costs no
+ * allocation. As with String.split, trailing empty fields of a line are dropped. The number of columns is taken from the
+ * first line. Rows with more fields than that are skipped, and missing trailing fields are read as empty values.
+ */
+public class ParallelCsvLoader {
+	static final long MIN_CHUNK_BYTES = 1 << 20;
+	static final long MAX_CHUNK_BYTES = 1 << 30; // Chunks are mapped as a single buffer, so must stay well under 2GB.
+
+	public static TableInfo load (String fileName, char separator, boolean quoted, boolean skipHeader, double sampleProb)
+			throws IOException {
+		return load(fileName, separator, quoted, skipHeader, sampleProb, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param quoted : If true, fields may be enclosed in double quotes (see CsvTokenizer). Quoted fields may not span lines.
+	 * @param skipHeader : If true, the first line only gives the number of columns, and is not loaded as a row.
+	 * @param sampleProb : Each row is loaded with this probability.
+	 */
+	public static TableInfo load (String fileName, char separator, boolean quoted, boolean skipHeader, double sampleProb,
+			int parallelism) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final long size = channel.size();
+			final long firstLineEnd = nextLineStart(channel, 0, size);
+			final int numColumns = countFields(channel, firstLineEnd, new CsvTokenizer(separator, quoted));
+			final long dataStart = skipHeader ? firstLineEnd : 0;
+			final long[] bounds = chunkBounds(channel, dataStart, size, parallelism);
+			final int numChunks = bounds.length - 1;
+			Chunk[] chunks = new Chunk[numChunks];
+			for (int i = 0; i < numChunks; i++) {
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+				chunks[i] = new Chunk(buffer, numColumns, new CsvTokenizer(separator, quoted), sampleProb);
+			}
+
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new ChunkTask(chunks, 0, numChunks, null));
+
+				// Merge the chunk dictionaries in file order.
+				List<List<String>> dictionary = new ArrayList<List<String>>(numColumns);
+				List<Map<String, Integer>> reverseDictionary = new ArrayList<Map<String, Integer>>(numColumns);
+				for (int col = 0; col < numColumns; col++) {
+					dictionary.add(new ArrayList<String>());
+					reverseDictionary.add(new HashMap<String, Integer>());
+				}
+				int numRows = 0;
+				for (Chunk chunk : chunks) {
+					chunk.rowOffset = numRows;
+					numRows += chunk.numRows;
+					chunk.remap = new int[numColumns][];
+					for (int col = 0; col < numColumns; col++) {
+						final ByteSliceDictionary localValues = chunk.dictionary[col];
+						final Map<String, Integer> columnDictionary = reverseDictionary.get(col);
+						chunk.remap[col] = new int[localValues.size()];
+						for (int local = 0; local < localValues.size(); local++) {
+							final String value = localValues.get(local);
+							Integer code = columnDictionary.get(value);
+							if (code == null) {
+								code = dictionary.get(col).size();
+								columnDictionary.put(value, code);
+								dictionary.get(col).add(value);
+							}
+							chunk.remap[col][local] = code;
+						}
+					}
+				}
+
+				PrimitiveColumn[] columns = new PrimitiveColumn[numColumns];
+				for (int col = 0; col < numColumns; col++) {
+					columns[col] = PrimitiveColumn.forCardinality(dictionary.get(col).size(), numRows);
+				}
+				final ColumnStore columnStore = new ColumnStore(columns, numRows);
+				pool.invoke(new ChunkTask(chunks, 0, numChunks, columnStore));
+				return new TableInfo(dictionary, reverseDictionary, columnStore);
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			// The mappings stay valid after the file is closed.
+			file.close();
+		}
+	}
+
+	/**
+	 * Splits [start, size) into byte ranges that begin at line starts. Returns the range boundaries, first start and last
+	 * end included.
+	 */
+	static long[] chunkBounds (FileChannel channel, long start, long size, int parallelism) throws IOException {
+		final long length = size - start;
+		int numChunks = (int) Math.max(1, Math.min(4L * parallelism, length / MIN_CHUNK_BYTES));
+		numChunks = (int) Math.max(numChunks, length / MAX_CHUNK_BYTES + 1);
+		long[] bounds = new long[numChunks + 1];
+		bounds[0] = start;
+		for (int i = 1; i < numChunks; i++) {
+			final long nominal = start + length * i / numChunks;
+			bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, nominal - 1, size));
+		}
+		bounds[numChunks] = size;
+		return bounds;
+	}
+
+	/**
+	 * Position just after the first newline at or after position, or size if there is none.
+	 */
+	static long nextLineStart (FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (position < size) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private static int countFields (FileChannel channel, long lineEnd, CsvTokenizer tokenizer) throws IOException {
+		ByteBuffer line = ByteBuffer.allocate((int) lineEnd);
+		while (line.hasRemaining() && channel.read(line, line.position()) > 0) {
+		}
+		int end = line.position();
+		while (end > 0 && (line.get(end - 1) == '\n' || line.get(end - 1) == '\r')) {
+			end--;
+		}
+		return Math.max(1, tokenizer.tokenize(line, 0, end));
+	}
+
+	/**
+	 * One byte range of the file. parse fills in its local dictionary and codes, remap writes its rows into the table.
+	 */
+	static class Chunk {
+		final MappedByteBuffer buffer;
+		final int numColumns;
+		final CsvTokenizer tokenizer;
+		final double sampleProb;
+		final ByteSliceDictionary[] dictionary; // Local dictionary of each column.
+		int[] codes; // Local codes, row-major.
+		int numRows;
+		int rowOffset; // Row of the table this chunk's first row goes to.
+		int[][] remap; // remap[col][localCode] is the table code of the value.
+
+		Chunk (MappedByteBuffer buffer, int numColumns, CsvTokenizer tokenizer, double sampleProb) {
+			this.buffer = buffer;
+			this.numColumns = numColumns;
+			this.tokenizer = tokenizer;
+			this.sampleProb = sampleProb;
+			dictionary = new ByteSliceDictionary[numColumns];
+			for (int col = 0; col < numColumns; col++) {
+				dictionary[col] = new ByteSliceDictionary();
+			}
+			codes = new int[numColumns * 1024];
+		}
+
+		void parse () {
+			final int limit = buffer.limit();
+			int position = 0;
+			while (position < limit) {
+				int lineEnd = position;
+				while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				int end = lineEnd;
+				if (end > position && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+				if (end > position && (sampleProb >= 1 || Math.random() <= sampleProb)) {
+					parseLine(position, end);
+				}
+				position = lineEnd + 1;
+			}
+		}
+
+		private void parseLine (int start, int end) {
+			final int numFields = tokenizer.tokenize(buffer, start, end);
+			if (numFields > numColumns) {
+				return;
+			}
+			if ((numRows + 1) * numColumns > codes.length) {
+				codes = Arrays.copyOf(codes, 2 * codes.length);
+			}
+			final int offset = numRows * numColumns;
+			for (int col = 0; col < numColumns; col++) {
+				if (col >= numFields) {
+					codes[offset + col] = dictionary[col].code(buffer, 0, 0);
+				} else if (tokenizer.escaped[col]) {
+					final ByteBuffer value = tokenizer.unescape(buffer, col);
+					codes[offset + col] = dictionary[col].code(value, 0, value.limit());
+				} else {
+					codes[offset + col] = dictionary[col].code(buffer, tokenizer.starts[col], tokenizer.ends[col]);
+				}
+			}
+			numRows++;
+		}
+
+		void remap (ColumnStore columnStore) {
+			for (int row = 0; row < numRows; row++) {
+				final int offset = row * numColumns;
+				for (int col = 0; col < numColumns; col++) {
+					columnStore.columns[col].set(rowOffset + row, remap[col][codes[offset + col]]);
+				}
+			}
+			codes = null;
+		}
+	}
+
+	/**
+	 * Parses (if columnStore is null) or remaps into columnStore the chunks from to to - 1, splitting the range in halves.
+	 */
+	static class ChunkTask extends RecursiveAction {
+		final Chunk[] chunks;
+		final int from;
+		final int to;
+		final ColumnStore columnStore;
+
+		ChunkTask (Chunk[] chunks, int from, int to, ColumnStore columnStore) {
+			this.chunks = chunks;
+			this.from = from;
+			this.to = to;
+			this.columnStore = columnStore;
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from == 1) {
+				if (columnStore == null) {
+					chunks[from].parse();
+				} else {
+					chunks[from].remap(columnStore);
+				}
+			} else if (to - from > 1) {
+				final int mid = (from + to) / 2;
+				invokeAll(new ChunkTask(chunks, from, mid, columnStore), new ChunkTask(chunks, mid, to, columnStore));
+			}
+		}
+	}
+}
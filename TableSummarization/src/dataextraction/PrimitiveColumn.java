@@ -0,0 +1,254 @@
+package dataextraction;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A single column of dictionary codes, stored in the narrowest primitive array (byte, short or int) that can hold every
+ * code of the column. Codes are always non-negative, so byte and short columns are read back unsigned.
+ */
+public abstract class PrimitiveColumn implements Serializable {
+	public abstract int get (int row);
+
+	public abstract void set (int row, int value);
+
+	/**
+	 * Number of rows this column has room for.
+	 */
+	public abstract int capacity ();
+
+	/**
+	 * Number of bytes used to store a single value.
+	 */
+	public abstract int width ();
+
+	/**
+	 * Creates an empty column of the given capacity, with the same value width as this one.
+	 */
+	public PrimitiveColumn emptyCopy (int capacity) {
+		return forWidth(width(), capacity);
+	}
+
+	/**
+	 * Creates an empty column wide enough to hold codes 0 to cardinality - 1.
+	 */
+	public static PrimitiveColumn forCardinality (int cardinality, int capacity) {
+		if (cardinality <= (1 << 8)) {
+			return new ByteColumn(capacity);
+		} else if (cardinality <= (1 << 16)) {
+			return new ShortColumn(capacity);
+		} else {
+			return new IntColumn(capacity);
+		}
+	}
+
+	/**
+	 * Creates a read-only column over numRows values of the given width, stored in buffer from its position on (for
+	 * instance a memory-mapped segment of a TableFile). Values are read straight out of the buffer, nothing is copied.
+	 */
+	public static PrimitiveColumn forBuffer (ByteBuffer buffer, int width, int numRows) {
+		switch (width) {
+			case 1 :
+				return new ByteBufferColumn(buffer, numRows);
+			case 2 :
+				return new ShortBufferColumn(buffer, numRows);
+			case 4 :
+				return new IntBufferColumn(buffer, numRows);
+			default :
+				throw new IllegalArgumentException("Column width not supported : " + width);
+		}
+	}
+
+	/**
+	 * Copies the first numRows values into a new heap column.
+	 */
+	public PrimitiveColumn copy (int numRows) {
+		PrimitiveColumn column = forWidth(width(), numRows);
+		for (int row = 0; row < numRows; row++) {
+			column.set(row, get(row));
+		}
+		return column;
+	}
+
+	public static PrimitiveColumn forWidth (int width, int capacity) {
+		switch (width) {
+			case 1 :
+				return new ByteColumn(capacity);
+			case 2 :
+				return new ShortColumn(capacity);
+			case 4 :
+				return new IntColumn(capacity);
+			default :
+				throw new IllegalArgumentException("Column width not supported : " + width);
+		}
+	}
+
+	static class ByteColumn extends PrimitiveColumn {
+		final byte[] values;
+
+		ByteColumn (int capacity) {
+			values = new byte[capacity];
+		}
+
+		@Override
+		public int get (int row) {
+			return values[row] & 0xFF;
+		}
+
+		@Override
+		public void set (int row, int value) {
+			values[row] = (byte) value;
+		}
+
+		@Override
+		public int capacity () {
+			return values.length;
+		}
+
+		@Override
+		public int width () {
+			return 1;
+		}
+	}
+
+	static class ShortColumn extends PrimitiveColumn {
+		final short[] values;
+
+		ShortColumn (int capacity) {
+			values = new short[capacity];
+		}
+
+		@Override
+		public int get (int row) {
+			return values[row] & 0xFFFF;
+		}
+
+		@Override
+		public void set (int row, int value) {
+			values[row] = (short) value;
+		}
+
+		@Override
+		public int capacity () {
+			return values.length;
+		}
+
+		@Override
+		public int width () {
+			return 2;
+		}
+	}
+
+	static class IntColumn extends PrimitiveColumn {
+		final int[] values;
+
+		IntColumn (int capacity) {
+			values = new int[capacity];
+		}
+
+		@Override
+		public int get (int row) {
+			return values[row];
+		}
+
+		@Override
+		public void set (int row, int value) {
+			values[row] = value;
+		}
+
+		@Override
+		public int capacity () {
+			return values.length;
+		}
+
+		@Override
+		public int width () {
+			return 4;
+		}
+	}
+
+	/**
+	 * Base of the buffer backed columns. Buffers are not serializable, so these are written out as heap columns.
+	 */
+	abstract static class BufferColumn extends PrimitiveColumn {
+		final int numRows;
+
+		BufferColumn (int numRows) {
+			this.numRows = numRows;
+		}
+
+		@Override
+		public void set (int row, int value) {
+			throw new UnsupportedOperationException("Buffer backed columns are read-only");
+		}
+
+		@Override
+		public int capacity () {
+			return numRows;
+		}
+
+		Object writeReplace () throws ObjectStreamException {
+			return copy(numRows);
+		}
+	}
+
+	static class ByteBufferColumn extends BufferColumn {
+		final transient ByteBuffer values;
+
+		ByteBufferColumn (ByteBuffer buffer, int numRows) {
+			super(numRows);
+			values = buffer.slice();
+		}
+
+		@Override
+		public int get (int row) {
+			return values.get(row) & 0xFF;
+		}
+
+		@Override
+		public int width () {
+			return 1;
+		}
+	}
+
+	static class ShortBufferColumn extends BufferColumn {
+		final transient ShortBuffer values;
+
+		ShortBufferColumn (ByteBuffer buffer, int numRows) {
+			super(numRows);
+			values = buffer.slice().order(buffer.order()).asShortBuffer();
+		}
+
+		@Override
+		public int get (int row) {
+			return values.get(row) & 0xFFFF;
+		}
+
+		@Override
+		public int width () {
+			return 2;
+		}
+	}
+
+	static class IntBufferColumn extends BufferColumn {
+		final transient IntBuffer values;
+
+		IntBufferColumn (ByteBuffer buffer, int numRows) {
+			super(numRows);
+			values = buffer.slice().order(buffer.order()).asIntBuffer();
+		}
+
+		@Override
+		public int get (int row) {
+			return values.get(row);
+		}
+
+		@Override
+		public int width () {
+			return 4;
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package dataextraction;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import solvers.Rule;
@@ -15,15 +14,48 @@ public class SampleHandler {
 	final public TableInfo table;
 	final public int minSampleSize; // Minimum sample size we need (depends on how accurate we want our numbers to be, and how low selectivity rules we want to detect.
 	final public int capacity; // Maximum number of rows we can store across all samples. Maybe change this to memory instead of rows.
+	final public int cubeCells; // Cells of the count cubes of each kept sample (see TableInfo.buildCountCube), 0 for none.
 	Set<TableSample> samples; // Set of current samples.
 	
 	
 	public SampleHandler (TableInfo table, int capacity, int minSampleSize) {
+		this(table, capacity, minSampleSize, 0);
+	}
+
+	/**
+	 * If cubeCells is positive, the samples getSample creates are kept while they fit in capacity, and reused for the same
+	 * filter rule, and each gets count cubes of at most cubeCells cells, built once.
+	 */
+	public SampleHandler (TableInfo table, int capacity, int minSampleSize, int cubeCells) {
 		this.table = table;
 		this.capacity = capacity;
 		this.minSampleSize = minSampleSize;
+		this.cubeCells = cubeCells;
 		samples = new HashSet<TableSample>();
 	}
+
+	/**
+	 * Sample of minSampleSize rows of the part of the table covered by filterRule, for a drill-down on it. A new one each
+	 * time, unless cubeCells is positive.
+	 */
+	public TableSample getSample (Rule filterRule) {
+		if (cubeCells <= 0) {
+			return TableSample.createSample(table, filterRule, minSampleSize);
+		}
+		long numRows = 0;
+		for (TableSample sample : samples) {
+			if (sample.filterRule.equals(filterRule)) {
+				return sample;
+			}
+			numRows += sample.numRows();
+		}
+		TableSample sample = TableSample.createSample(table, filterRule, minSampleSize);
+		sample.buildCountCube(cubeCells);
+		if (numRows + sample.numRows() <= capacity) {
+			samples.add(sample);
+		}
+		return sample;
+	}
 	
 	/**
 	 * Returns a sample for querying (finding best covering rules) the portion of the table covered by filterRule. May need to create
@@ -50,14 +82,15 @@ public class SampleHandler {
 				Rule contractedRule = sample.truncateRule(filterRule, scorer);
 				int sampleTupleCount = 0;
 				final int numSelectivitySamples = 100;
+				final int[] sampleTuple = new int[sample.dictionary.size()];
 				for (int i = 0; i < numSelectivitySamples; i++) {
-					final int tupleNo = (int)(Math.random() * sample.contents.size());
-					final List<Integer> sampleTuple = sample.contents.get(tupleNo);
+					final int tupleNo = (int)(Math.random() * sample.numRows());
+					sample.fillRow(tupleNo, sampleTuple);
 					if (Rule.isSubRule(contractedRule, sampleTuple)) {
 						sampleTupleCount++;
 					}
 				}
-				sampleTupleCount *= sample.contents.size() / numSelectivitySamples;
+				sampleTupleCount *= sample.numRows() / numSelectivitySamples;
 				tupleCount += sampleTupleCount;
 			}
 			if (tupleCount > minSampleSize) {
@@ -0,0 +1,219 @@
+package dataextraction;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary on-disk format for a TableInfo, opened by memory-mapping so that loading a table does not copy or deserialize
+ * its rows, and processes opening the same file share its pages. All numbers are big-endian. Layout:
+ * 	header : magic, version, numColumns, numRows (ints), then for each column its width in bytes (int) and the file offset
+ * 		of its segment (long), then the file offset of the multiplicity segment (long, 0 if the table is not compressed).
+ * 	metadata : for each column its dictionary (count, then strings), then its names (count, or -1 if the table has no
+ * 		names, then key and value strings). A string is its UTF-8 length (int) followed by the bytes.
+ * 	column segments : numRows values of the column's width, each segment starting at a multiple of 8.
+ * 	multiplicity segment : if the table is compressed (see TableInfo.compressDuplicates), numRows ints.
+ * Only the dictionaries, names and codes are stored, so numerical columns should be bucketized before writing. Version 1
+ * files, which have no multiplicity offset, can still be opened.
+ */
+public class TableFile {
+	static final int MAGIC = 0x54534D54; // "TSMT"
+	public static final int VERSION = 2;
+	static final int ALIGNMENT = 8;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void write (TableInfo table, String fileName) throws IOException {
+		final int numColumns = table.dictionary.size();
+		final int numRows = table.numRows();
+		int[] widths = new int[numColumns];
+		for (int col = 0; col < numColumns; col++) {
+			widths[col] = PrimitiveColumn.forCardinality(table.dictionary.get(col).size(), 0).width();
+		}
+
+		ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+		DataOutputStream metadata = new DataOutputStream(metadataBytes);
+		for (int col = 0; col < numColumns; col++) {
+			final List<String> values = table.dictionary.get(col);
+			metadata.writeInt(values.size());
+			for (String value : values) {
+				writeString(metadata, value);
+			}
+			if (table.names == null) {
+				metadata.writeInt(-1);
+			} else {
+				final Map<String, String> names = table.names.get(col);
+				metadata.writeInt(names.size());
+				for (Map.Entry<String, String> entry : names.entrySet()) {
+					writeString(metadata, entry.getKey());
+					writeString(metadata, entry.getValue());
+				}
+			}
+		}
+		metadata.close();
+
+		final long headerLength = 16 + 12L * numColumns + 8;
+		long[] offsets = new long[numColumns];
+		long offset = align(headerLength + metadataBytes.size());
+		for (int col = 0; col < numColumns; col++) {
+			offsets[col] = offset;
+			offset = align(offset + (long) numRows * widths[col]);
+		}
+		final long multiplicityOffset = table.multiplicity == null ? 0 : offset;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(numColumns);
+		out.writeInt(numRows);
+		for (int col = 0; col < numColumns; col++) {
+			out.writeInt(widths[col]);
+			out.writeLong(offsets[col]);
+		}
+		out.writeLong(multiplicityOffset);
+		metadataBytes.writeTo(out);
+		long position = headerLength + metadataBytes.size();
+		for (int col = 0; col < numColumns; col++) {
+			for (; position < offsets[col]; position++) {
+				out.writeByte(0);
+			}
+			for (int row = 0; row < numRows; row++) {
+				final int value = table.getValue(row, col);
+				switch (widths[col]) {
+					case 1 :
+						out.writeByte(value);
+						break;
+					case 2 :
+						out.writeShort(value);
+						break;
+					default :
+						out.writeInt(value);
+						break;
+				}
+			}
+			position += (long) numRows * widths[col];
+		}
+		if (table.multiplicity != null) {
+			for (; position < multiplicityOffset; position++) {
+				out.writeByte(0);
+			}
+			for (int row = 0; row < numRows; row++) {
+				out.writeInt(table.multiplicity[row]);
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Opens a table written by write. The table is columnar, and its columns read directly from the mapped file, so they
+	 * are read-only. The multiplicities of a compressed table are read into memory.
+	 */
+	public static TableInfo open (String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(16);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("Not a table file : " + fileName);
+			}
+			final int version = header.getInt(4);
+			if (version != VERSION && version != 1) {
+				throw new IOException("Unsupported table file version " + version + " : " + fileName);
+			}
+			final int numColumns = header.getInt(8);
+			final int numRows = header.getInt(12);
+			ByteBuffer directory = ByteBuffer.allocate(12 * numColumns + (version == 1 ? 0 : 8));
+			readFully(channel, directory, 16);
+			int[] widths = new int[numColumns];
+			long[] offsets = new long[numColumns];
+			for (int col = 0; col < numColumns; col++) {
+				widths[col] = directory.getInt(12 * col);
+				offsets[col] = directory.getLong(12 * col + 4);
+			}
+
+			final long multiplicityOffset = version == 1 ? 0 : directory.getLong(12 * numColumns);
+			final long metadataStart = 16 + directory.capacity();
+			final long metadataEnd = numColumns > 0 ? offsets[0] : channel.size();
+			ByteBuffer metadata = channel.map(FileChannel.MapMode.READ_ONLY, metadataStart, metadataEnd - metadataStart);
+			List<List<String>> dictionary = new ArrayList<List<String>>(numColumns);
+			List<Map<String, Integer>> reverseDictionary = new ArrayList<Map<String, Integer>>(numColumns);
+			List<Map<String, String>> names = new ArrayList<Map<String, String>>(numColumns);
+			for (int col = 0; col < numColumns; col++) {
+				final int numValues = metadata.getInt();
+				List<String> values = new ArrayList<String>(numValues);
+				Map<String, Integer> reverseValues = new HashMap<String, Integer>();
+				for (int val = 0; val < numValues; val++) {
+					final String value = readString(metadata);
+					values.add(value);
+					reverseValues.put(value, val);
+				}
+				dictionary.add(values);
+				reverseDictionary.add(reverseValues);
+				final int numNames = metadata.getInt();
+				if (numNames < 0) {
+					names = null;
+				} else {
+					Map<String, String> columnNames = new HashMap<String, String>();
+					for (int i = 0; i < numNames; i++) {
+						final String key = readString(metadata);
+						columnNames.put(key, readString(metadata));
+					}
+					if (names != null) {
+						names.add(columnNames);
+					}
+				}
+			}
+
+			PrimitiveColumn[] columns = new PrimitiveColumn[numColumns];
+			for (int col = 0; col < numColumns; col++) {
+				final ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offsets[col], (long) numRows * widths[col]);
+				columns[col] = PrimitiveColumn.forBuffer(segment, widths[col], numRows);
+			}
+			TableInfo table = new TableInfo(dictionary, reverseDictionary, new ColumnStore(columns, numRows));
+			table.names = names;
+			if (multiplicityOffset != 0) {
+				table.multiplicity = new int[numRows];
+				channel.map(FileChannel.MapMode.READ_ONLY, multiplicityOffset, 4L * numRows).asIntBuffer().get(table.multiplicity);
+			}
+			return table;
+		} finally {
+			// The mappings stay valid after the file is closed.
+			file.close();
+		}
+	}
+
+	static long align (long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static void readFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of table file");
+			}
+		}
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		final byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString (ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -2,6 +2,7 @@ package dataextraction;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,6 +11,8 @@ import java.util.Map;
 import java.util.Set;
 
 public class TableInfo implements Serializable{
+	// The class's as of the checked-in serialized tables, so that they still load (fields added since are left null).
+	private static final long serialVersionUID = 560988797961233029L;
 	public List<List<String>> dictionary;
 	public List<Map<String, Integer>> reverseDictionary;
 	public List<List<Integer>> contents;
@@ -17,7 +20,12 @@ public class TableInfo implements Serializable{
 	public List<List<Double>> buckets; // Has numbers which denote the interval endpoints of buckets. The number of buckets is thus one less than number of endpoints.
 	public List<Integer> numericalColumns; // List of indexes of numerical columns.
 	public List<List<Double>> numericalValues; // For each tuple, has list of actual numerical values, since contents itself has only bucket index.
-	
+	public ColumnStore columnStore; // Columnar storage of the table. When set, contents is only a read-only view of it.
+	public PackedRows packedRows; // Bit-packed copy of the rows used for mask-compare rule matching, if packRows has been called.
+	public BitmapIndex bitmapIndex; // Per (column, value) row bitmaps used to count rules by intersection, if buildBitmapIndex has been called.
+	public CountCube countCube; // Count cubes over groups of low-cardinality columns, if buildCountCube has been called.
+	public int[] multiplicity; // Number of rows each tuple stands for, if compressDuplicates has been called.
+
 	public String getName (int col, int val) {
 		if (val == -1) {
 			return "*";
@@ -48,7 +56,153 @@ public class TableInfo implements Serializable{
 		this.reverseDictionary = reverseDictionary;
 		this.contents = contents;
 	}
-	
+
+	public TableInfo (List<List<String>> dictionary, List<Map<String, Integer>> reverseDictionary, ColumnStore columnStore) {
+		this.dictionary = dictionary;
+		this.reverseDictionary = reverseDictionary;
+		this.columnStore = columnStore;
+		this.contents = columnStore.rowView();
+	}
+
+	/**
+	 * Number of tuples in the table.
+	 */
+	public int numRows () {
+		if (columnStore != null) {
+			return columnStore.numRows();
+		}
+		return contents.size();
+	}
+
+	/**
+	 * Number of rows the given tuple stands for: its multiplicity if the table is compressed, else 1. Counting passes add
+	 * this for a tuple instead of 1.
+	 */
+	public int weight (int row) {
+		return multiplicity == null ? 1 : multiplicity[row];
+	}
+
+	/**
+	 * Number of rows the table stands for, which is numRows() unless it is compressed.
+	 */
+	public int totalWeight () {
+		if (multiplicity == null) {
+			return numRows();
+		}
+		int total = 0;
+		for (int weight : multiplicity) {
+			total += weight;
+		}
+		return total;
+	}
+
+	public int getValue (int row, int col) {
+		if (columnStore != null) {
+			return columnStore.get(row, col);
+		}
+		return contents.get(row).get(col);
+	}
+
+	/**
+	 * Copies the given row into tuple, without boxing when the table is columnar. Counting passes should walk the table
+	 * with this, reusing a single tuple array.
+	 */
+	public void fillRow (int row, int[] tuple) {
+		if (columnStore != null) {
+			columnStore.fillRow(row, tuple);
+		} else {
+			final List<Integer> rowList = contents.get(row);
+			for (int col = 0; col < tuple.length; col++) {
+				tuple[col] = rowList.get(col);
+			}
+		}
+	}
+
+	/**
+	 * Moves the contents into columnar storage (one byte/short/int array per column, by dictionary size), replacing
+	 * contents with a read-only view. Numerical columns must be bucketized before this is called.
+	 */
+	public void convertToColumnar () {
+		if (columnStore != null) {
+			return;
+		}
+		columnStore = ColumnStore.fromRows(contents, dictionary);
+		contents = columnStore.rowView();
+	}
+
+	/**
+	 * Builds the bit-packed encoding of the rows (see PackedRows). Counting passes use it when present.
+	 */
+	public void packRows () {
+		packedRows = PackedRows.pack(this);
+	}
+
+	/**
+	 * Builds the (column, value) bitmap index of the rows (see BitmapIndex). Counting passes and createSample use it when
+	 * present, instead of scanning the table.
+	 */
+	public void buildBitmapIndex () {
+		if (multiplicity != null) {
+			throw new IllegalStateException("Bitmap index counts do not weight tuples, so a compressed table cannot have one");
+		}
+		bitmapIndex = BitmapIndex.build(this);
+	}
+
+	/**
+	 * Builds count cubes of at most maxCells cells each over groups of the columns (see CountCube). getSingleCounts, size
+	 * two counting, count upper bounds and the candidate counts of a drill-down's first rule use them when present.
+	 */
+	public void buildCountCube (int maxCells) {
+		countCube = CountCube.build(this, maxCells);
+	}
+
+	/**
+	 * Collapses duplicate tuples into one, whose multiplicity is the number of rows it stands for (the sum of the weights of
+	 * the tuples merged, if the table is already compressed). Tuples keep the order of their first occurrence, and the
+	 * table stays columnar if it was. Counting and marginal value passes then visit each distinct tuple once and weight it
+	 * by its multiplicity, giving the same counts. numericalValues are dropped, since tuples with different values in a
+	 * bucket are merged, and packed rows are rebuilt; count cubes hold row counts, so they stay valid. A table with a
+	 * bitmap index cannot be compressed.
+	 */
+	public void compressDuplicates () {
+		if (bitmapIndex != null) {
+			throw new IllegalStateException("Bitmap index counts do not weight tuples, so a table with one cannot be compressed");
+		}
+		final int numRows = numRows();
+		final int[] tuple = new int[dictionary.size()];
+		Map<List<Integer>, Integer> tupleIds = new HashMap<List<Integer>, Integer>();
+		List<List<Integer>> distinctTuples = new ArrayList<List<Integer>>();
+		int[] weights = new int[Math.min(numRows, 1024)];
+		for (int row = 0; row < numRows; row++) {
+			fillRow(row, tuple);
+			List<Integer> key = new ArrayList<Integer>(tuple.length);
+			for (int val : tuple) {
+				key.add(val);
+			}
+			Integer id = tupleIds.get(key);
+			if (id == null) {
+				id = distinctTuples.size();
+				tupleIds.put(key, id);
+				distinctTuples.add(key);
+				if (id == weights.length) {
+					weights = Arrays.copyOf(weights, 2 * weights.length);
+				}
+			}
+			weights[id] += weight(row);
+		}
+		multiplicity = Arrays.copyOf(weights, distinctTuples.size());
+		if (columnStore != null) {
+			columnStore = ColumnStore.fromRows(distinctTuples, dictionary);
+			contents = columnStore.rowView();
+		} else {
+			contents = distinctTuples;
+		}
+		numericalValues = null;
+		if (packedRows != null) {
+			packRows();
+		}
+	}
+
 	/**
 	 * Takes a table and bucketizes the numerical columns. 
 	 * @param numericalColumns : List of columns indexes that are numerical. 
@@ -118,11 +272,28 @@ public class TableInfo implements Serializable{
 		}
 	}
 	
+	/**
+	 * Projection of the table on the given columns. The projection of a compressed table keeps its multiplicities, and can
+	 * be compressed further with compressDuplicates.
+	 */
 	public TableInfo getSubTable (List<Integer> columns) {
 		List<List<String>> newDictionary = new ArrayList<List<String>>();
 		List<Map<String, Integer>> newReverseDictionary = new ArrayList<Map<String, Integer>>();
-		List<List<Integer>> newContents = new ArrayList<List<Integer>>();
 		List<Map<String, String>> newNames = new ArrayList<Map<String, String>>();
+		for (int col : columns) {
+			newDictionary.add(dictionary.get(col));
+			newReverseDictionary.add(reverseDictionary.get(col));
+			newNames.add(names.get(col));
+
+		}
+		if (columnStore != null) {
+			// Columns are shared with this table, so no tuple is copied.
+			TableInfo newTable = new TableInfo(newDictionary, newReverseDictionary, columnStore.project(columns));
+			newTable.names = newNames;
+			newTable.multiplicity = multiplicity;
+			return newTable;
+		}
+		List<List<Integer>> newContents = new ArrayList<List<Integer>>();
 		for (List<Integer> tuple : contents) {
 			List<Integer> newTuple = new ArrayList<Integer>();
 			for (int col : columns) {
@@ -130,14 +301,9 @@ public class TableInfo implements Serializable{
 			}
 			newContents.add(newTuple);
 		}
-		for (int col : columns) {
-			newDictionary.add(dictionary.get(col));
-			newReverseDictionary.add(reverseDictionary.get(col));
-			newNames.add(names.get(col));
-			
-		}
 		TableInfo newTable = new TableInfo(newDictionary, newReverseDictionary, newContents);
 		newTable.names = newNames;
+		newTable.multiplicity = multiplicity;
 		return newTable;
 	}
 }
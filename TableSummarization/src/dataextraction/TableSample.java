@@ -1,6 +1,7 @@
 package dataextraction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -49,59 +50,162 @@ public class TableSample extends TableInfo {
 		setReverseColumnMapping();
 		setDictionary();
 	}
+
+	public TableSample (TableInfo table, Rule filterRule, Integer totalCount, ColumnStore columnStore, List<Integer> columnMapping) {
+		this.table = table;
+		this.filterRule = filterRule;
+		this.totalCount = totalCount;
+		this.columnStore = columnStore;
+		this.contents = columnStore.rowView();
+		this.columnMapping = columnMapping;
+		setReverseColumnMapping();
+		setDictionary();
+	}
 	
 	public Integer size() {
-		return contents.size();
+		return numRows();
 	}
 	
 	/**
 	 * The probability with which any tuple satisfying filterRule was loaded into this sample.
 	 */
 	public double sampleFraction () {
-		return (1.0  * size())/totalCount;
+		return (1.0  * totalWeight())/totalCount;
 	}
 
 	/**
 	 * Create a sample of max-size equal to 'size', with filter as the filterRule.
 	 * Thus in order to get all rules covered by filter rule, set size = Integer.MAX_VALUE.
 	 * To get a random sample of the table, set filter to be the empty rule. 
+	 * If the table is columnar, so is the sample. If the table has a bitmap index, the rows covered by filter are read off
+	 * the index instead of scanning the table, and the sample gets an index of its own. If the table is compressed, so is
+	 * the sample: each tuple in it has the number of its rows that were sampled as multiplicity, all of them if the sample
+	 * covers every row.
 	 */
 	public static TableSample createSample(TableInfo table, Rule filter, Integer size) {
 		final int tableLength = table.dictionary.size();
 		final int sampleLength = tableLength - filter.size();
+		final int numRows = table.numRows();
 		int totalCount = 0; // Total number of tuples in table that satisfies the filter.
-		List<List<Integer>> contentsList = new ArrayList<List<Integer>>();
 		List<Integer> columnMapping = new ArrayList<Integer>();
 		for (int i = 0; i < tableLength; i++) {
 			if (filter.get(i) == -1) {
 				columnMapping.add(i);
 			}
 		}
-		for (List<Integer> tuple : table.contents) {
-			if (Rule.isSubRule(filter, tuple)) {
-				totalCount++;
-				if (contentsList.size() < size) {
-					List<Integer> sampleTuple = new ArrayList<Integer>();
-					for (int i = 0; i < sampleLength; i++) {
-						sampleTuple.add(tuple.get(columnMapping.get(i)));
+		final int[] tuple = new int[tableLength];
+		int[] sampleRows; // Rows of table going into the sample.
+		int[] sampleWeights = null; // Multiplicity of each of them in the sample, null if the table is not compressed.
+		if (table.bitmapIndex != null) {
+			final int[] coveredRows = table.bitmapIndex.rowsFor(filter).toArray();
+			totalCount = coveredRows.length;
+			sampleRows = chooseRows(coveredRows, size);
+		} else {
+			int[] coveredRows = new int[16];
+			int numCovered = 0;
+			for (int row = 0; row < numRows; row++) {
+				table.fillRow(row, tuple);
+				if (Rule.isSubRule(filter, tuple)) {
+					if (numCovered == coveredRows.length) {
+						coveredRows = Arrays.copyOf(coveredRows, 2 * numCovered);
+					}
+					coveredRows[numCovered++] = row;
+					totalCount += table.weight(row);
+				}
+			}
+			coveredRows = Arrays.copyOf(coveredRows, numCovered);
+			if (totalCount <= size) {
+				sampleRows = coveredRows;
+				if (table.multiplicity != null) {
+					sampleWeights = new int[numCovered];
+					for (int i = 0; i < numCovered; i++) {
+						sampleWeights[i] = table.multiplicity[coveredRows[i]];
 					}
-					contentsList.add(sampleTuple);
-				} else {
-					int toReplace = (int) (Math.random() * totalCount);
-					if (toReplace < size) {
-						List<Integer> sampleTuple = new ArrayList<Integer>();
-						for (int i = 0; i < sampleLength; i++) {
-							sampleTuple.add(tuple.get(columnMapping.get(i)));
+				}
+			} else {
+				// Selection sampling of size of the rows the covered tuples stand for: each row is picked with probability the
+				// number still needed over the number left. A tuple goes in once, with the number of its rows picked.
+				sampleRows = new int[Math.min(size, numCovered)];
+				sampleWeights = new int[sampleRows.length];
+				int sampleSize = 0;
+				long left = totalCount;
+				int needed = size;
+				for (int row : coveredRows) {
+					int picked = 0;
+					for (int copy = table.weight(row); copy > 0 && needed > 0; copy--, left--) {
+						if (Math.random() * left < needed) {
+							picked++;
+							needed--;
 						}
-						contentsList.set(toReplace, sampleTuple);
+					}
+					if (picked > 0) {
+						sampleRows[sampleSize] = row;
+						sampleWeights[sampleSize++] = picked;
 					}
 				}
+				sampleRows = Arrays.copyOf(sampleRows, sampleSize);
+				sampleWeights = table.multiplicity == null ? null : Arrays.copyOf(sampleWeights, sampleSize);
 			}
 		}
-		List<List<Integer>> contents = new ArrayList<List<Integer>>(contentsList);
-		TableSample result = new TableSample(table, filter, totalCount, contents, columnMapping);
+		TableSample result;
+		if (table.columnStore != null) {
+			final int[] sampleTuple = new int[sampleLength];
+			ColumnStore sampleStore = table.columnStore.emptyCopy(columnMapping, sampleRows.length);
+			for (int row : sampleRows) {
+				table.fillRow(row, tuple);
+				projectTuple(tuple, columnMapping, sampleTuple);
+				sampleStore.addRow(sampleTuple);
+			}
+			result = new TableSample(table, filter, totalCount, sampleStore, columnMapping);
+		} else {
+			List<List<Integer>> contents = new ArrayList<List<Integer>>(sampleRows.length);
+			for (int row : sampleRows) {
+				table.fillRow(row, tuple);
+				contents.add(projectTuple(tuple, columnMapping));
+			}
+			result = new TableSample(table, filter, totalCount, contents, columnMapping);
+		}
+		result.multiplicity = sampleWeights;
+		if (table.packedRows != null) {
+			result.packRows();
+		}
+		if (table.bitmapIndex != null) {
+			result.buildBitmapIndex();
+		}
 		return result;
 	}
+
+	/**
+	 * Uniform random subset of rows of size min(size, rows.length), in increasing order. rows is reordered.
+	 */
+	private static int[] chooseRows (int[] rows, int size) {
+		if (rows.length <= size) {
+			return rows;
+		}
+		for (int i = 0; i < size; i++) {
+			final int j = i + (int) (Math.random() * (rows.length - i));
+			final int row = rows[i];
+			rows[i] = rows[j];
+			rows[j] = row;
+		}
+		int[] chosen = Arrays.copyOf(rows, size);
+		Arrays.sort(chosen);
+		return chosen;
+	}
+
+	private static void projectTuple (int[] tuple, List<Integer> columnMapping, int[] sampleTuple) {
+		for (int i = 0; i < sampleTuple.length; i++) {
+			sampleTuple[i] = tuple[columnMapping.get(i)];
+		}
+	}
+
+	private static List<Integer> projectTuple (int[] tuple, List<Integer> columnMapping) {
+		List<Integer> sampleTuple = new ArrayList<Integer>(columnMapping.size());
+		for (int i = 0; i < columnMapping.size(); i++) {
+			sampleTuple.add(tuple[columnMapping.get(i)]);
+		}
+		return sampleTuple;
+	}
 	
 	/**
 	 * Create a sample by filtering tableSample according to the filter rule. Note that the filter rule must be a superRule of
@@ -120,13 +224,17 @@ public class TableSample extends TableInfo {
 		}
 		int totalCount = 0;
 		List<List<Integer>> contents = new ArrayList<List<Integer>>();
-		for (List<Integer> tuple : tableSample.contents) {
+		List<Integer> weights = new ArrayList<Integer>();
+		final int[] tuple = new int[oldColumnMapping.size()];
+		for (int row = 0; row < tableSample.numRows(); row++) {
+			tableSample.fillRow(row, tuple);
 			if (tableSample.isSubRule(filter, tuple)) {
-				totalCount++;
+				totalCount += tableSample.weight(row);
+				weights.add(tableSample.weight(row));
 				List<Integer> newTuple = new ArrayList<Integer>();
 				for (int i = 0; i < oldColumnMapping.size(); i++) {
 					if (filter.get(oldColumnMapping.get(i)) == -1) {
-						newTuple.add(tuple.get(i));
+						newTuple.add(tuple[i]);
 					}
 				}
 				contents.add(newTuple);
@@ -134,6 +242,12 @@ public class TableSample extends TableInfo {
 		}
 		totalCount /= tableSample.sampleFraction();
 		TableSample result = new TableSample(tableSample.table, filter, totalCount, contents, columnMapping);
+		if (tableSample.multiplicity != null) {
+			result.multiplicity = new int[weights.size()];
+			for (int i = 0; i < weights.size(); i++) {
+				result.multiplicity[i] = weights.get(i);
+			}
+		}
 		return result;
 	}
 	
@@ -162,6 +276,16 @@ public class TableSample extends TableInfo {
 		}
 		return true;
 	}
+
+	public boolean isSubRule (Rule rule, int[] tuple) {
+		for (int i = 0; i < columnMapping.size(); i++) {
+			final int j = columnMapping.get(i);
+			if (rule.get(j) != -1 && rule.get(j) != tuple[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
 	
 	/**
 	 * Take a rule in format of the original table and convert it into a corresponding rule for the reduced table. Also adjusts 
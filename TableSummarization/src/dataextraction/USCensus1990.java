@@ -33,47 +33,7 @@ public class USCensus1990 {
 	}
 	
 	public static TableInfo parseData(Double sampleProb) throws IOException {
-		BufferedReader br = new BufferedReader(new FileReader(DATAFILELOCATION));
-		List<List<String>> dictionary = new ArrayList<List<String>>();
-		List<Map<String, Integer>> reverseDictionary = new ArrayList<Map<String, Integer>>();
-		List<List<Integer>> contents = new ArrayList<List<Integer>>();
-		
-		String line = br.readLine();
-		{
-			String[] vals = line.split(",");
-			for (int i = 0; i < vals.length; i++) {
-				dictionary.add(new ArrayList<String>());
-				reverseDictionary.add(new HashMap<String, Integer>());
-			}
-		}
-		
-		while ((line = br.readLine()) != null) {
-			if (Math.random() > sampleProb) {
-				continue;
-			}
-			String[] vals = line.split(",");
-			List<Integer> tuple = new ArrayList<Integer>(vals.length);
-			for (int i = 0; i < vals.length; i++) {
-				final String value = vals[i];
-				/*if (value.equals("03")) {
-					out.println(line);
-					System.exit(1);
-				}*/
-				Map<String, Integer> columnDictionary = reverseDictionary.get(i);
-				if (columnDictionary.containsKey(value)) {
-					tuple.add(columnDictionary.get(value));
-				} else {
-					columnDictionary.put(value, columnDictionary.keySet().size());
-					dictionary.get(i).add(value);
-					tuple.add(columnDictionary.get(value));
-				}
-			}
-			contents.add(tuple);
-		}
-		
-		br.close();
-		
-		TableInfo table = new TableInfo(dictionary, reverseDictionary, contents);
+		TableInfo table = ParallelCsvLoader.load(DATAFILELOCATION, ',', false, true, sampleProb);
 		addNames(table);
 		return table;
 	}
@@ -121,7 +81,7 @@ public class USCensus1990 {
 	
 	public static void main(String[] args) throws IOException {
 		TableInfo ti = parseData(0.004);
-		out.println(ti.contents.size());
+		out.println(ti.numRows());
 	}
 
 }
@@ -0,0 +1,360 @@
+package solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import dataextraction.TableInfo;
+
+/**
+ * The candidate rule lattice of getBestMarginalRule, in primitive arrays instead of Rule objects and java.util maps.
+ * Every candidate gets an int id, in order of insertion. Its values are packed into a fixed number of longs, with
+ * value + 1 in each column's bits and 0 for a star, and an open-addressing table maps packed values to ids. Count, score
+ * and marginal values live in parallel arrays indexed by id.
+ * Each candidate has at most one parent (an immediate sub-rule already in the lattice), and the super-rule adjacency
+ * (children of each candidate) is stored CSR-style: the children of id are children[childStart[id]] to
+ * children[childEnd[id] - 1]. Candidates are added level by level (by size), and linkLevel fills in the adjacency of a
+ * level once its candidates are accepted.
+ */
+public class CandidateTable {
+	final int length; // Number of columns.
+	final int words; // Longs per packed rule.
+	final int[] fieldWord; // Word holding each column's bits.
+	final int[] fieldShift;
+	final long[] fieldMask; // Unshifted mask of each column's bits.
+	final int[] cardinality; // Number of values of each column.
+
+	int size; // Number of candidates.
+	long[] keys; // Packed values, words per candidate.
+	long[] masks; // All bits of the non-star columns, words per candidate. Row r is covered iff (r & mask) == key.
+	int[] hashes;
+	int[] table; // Open addressing table of id + 1, 0 for empty. Length is a power of 2.
+
+	public int[] count;
+	public int[] score;
+	public int[] ruleSize;
+	public int[] minMarginalValue;
+	public int[] maxMarginalValue;
+	public boolean[] counted;
+	public boolean[] pruned; // Pruned candidates stay in the table, but find and the adjacency skip them.
+	public int[] parent; // Id of the sub-rule this candidate is linked under, -1 if none.
+	// Least of count * (maxRuleScore - score) + maxMarginalValue over the counted sub-rules of each candidate, itself
+	// included, Integer.MAX_VALUE if none is counted. Set by getBestMarginalRule, see candidateMarginalValueUpperBound.
+	public int[] subRuleBound;
+	int[] childStart;
+	int[] childEnd;
+	int[] children;
+	int numChildren;
+
+	public CandidateTable (TableInfo tableInfo) {
+		length = tableInfo.dictionary.size();
+		fieldWord = new int[length];
+		fieldShift = new int[length];
+		fieldMask = new long[length];
+		cardinality = new int[length];
+		int word = 0;
+		int shift = 0;
+		for (int col = 0; col < length; col++) {
+			cardinality[col] = tableInfo.dictionary.get(col).size();
+			final int bits = 32 - Integer.numberOfLeadingZeros(cardinality[col]); // Enough for 0 to cardinality.
+			if (shift + bits > 64) {
+				word++;
+				shift = 0;
+			}
+			fieldWord[col] = word;
+			fieldShift[col] = shift;
+			fieldMask[col] = (1L << bits) - 1;
+			shift += bits;
+		}
+		words = word + 1;
+		final int capacity = 1024;
+		keys = new long[capacity * words];
+		masks = new long[capacity * words];
+		hashes = new int[capacity];
+		table = new int[2 * capacity];
+		count = new int[capacity];
+		score = new int[capacity];
+		ruleSize = new int[capacity];
+		minMarginalValue = new int[capacity];
+		maxMarginalValue = new int[capacity];
+		counted = new boolean[capacity];
+		pruned = new boolean[capacity];
+		parent = new int[capacity];
+		subRuleBound = new int[capacity];
+		childStart = new int[capacity];
+		childEnd = new int[capacity];
+		children = new int[capacity];
+	}
+
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Bytes a candidate takes in the arrays, counting the room arrays grow by and the copy made when they grow.
+	 */
+	public long bytesPerCandidate () {
+		return 3L * (16 * words + 54);
+	}
+
+	public int words () {
+		return words;
+	}
+
+	public int length () {
+		return length;
+	}
+
+	public int cardinality (int col) {
+		return cardinality[col];
+	}
+
+	/**
+	 * Value of the candidate at col, -1 for a star.
+	 */
+	public int get (int id, int col) {
+		return (int) ((keys[id * words + fieldWord[col]] >>> fieldShift[col]) & fieldMask[col]) - 1;
+	}
+
+	public void fillValues (int id, int[] values) {
+		for (int col = 0; col < length; col++) {
+			values[col] = get(id, col);
+		}
+	}
+
+	public List<Integer> values (int id) {
+		List<Integer> values = new ArrayList<Integer>(length);
+		for (int col = 0; col < length; col++) {
+			values.add(get(id, col));
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the packed values of id into key at offset.
+	 */
+	public void copyKey (int id, long[] key, int offset) {
+		System.arraycopy(keys, id * words, key, offset, words);
+	}
+
+	/**
+	 * Sets col to val (or to a star, if val is -1) in the packed key at offset.
+	 */
+	public void setValue (long[] key, int offset, int col, int val) {
+		final int w = offset + fieldWord[col];
+		key[w] = (key[w] & ~(fieldMask[col] << fieldShift[col])) | (((long) (val + 1)) << fieldShift[col]);
+	}
+
+	/**
+	 * Packs a tuple (or rule values with -1 for stars) into key at offset.
+	 */
+	public void encode (int[] values, long[] key, int offset) {
+		for (int w = 0; w < words; w++) {
+			key[offset + w] = 0;
+		}
+		for (int col = 0; col < length; col++) {
+			key[offset + fieldWord[col]] |= ((long) (values[col] + 1)) << fieldShift[col];
+		}
+	}
+
+	private int hash (long[] key, int offset) {
+		long h = 0;
+		for (int w = 0; w < words; w++) {
+			h = 31 * h + key[offset + w];
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private boolean keyEquals (int id, long[] key, int offset) {
+		final int idOffset = id * words;
+		for (int w = 0; w < words; w++) {
+			if (keys[idOffset + w] != key[offset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Id of the candidate with the packed values at offset of key, or -1 if there is none (or it was pruned).
+	 */
+	public int find (long[] key, int offset) {
+		final int id = findAny(key, offset);
+		return id >= 0 && pruned[id] ? -1 : id;
+	}
+
+	/**
+	 * Id of the candidate with the packed values at offset of key, pruned or not, or -1 if there is none.
+	 */
+	public int findAny (long[] key, int offset) {
+		final int hash = hash(key, offset);
+		final int tableMask = table.length - 1;
+		for (int slot = hash & tableMask; table[slot] != 0; slot = (slot + 1) & tableMask) {
+			final int id = table[slot] - 1;
+			if (hashes[id] == hash && keyEquals(id, key, offset)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the candidate with the packed values at offset of key, if it is not in the table yet. Returns its id, or -(id + 1)
+	 * if it was already there.
+	 */
+	public int add (long[] key, int offset) {
+		final int hash = hash(key, offset);
+		final int tableMask = table.length - 1;
+		int slot = hash & tableMask;
+		for (; table[slot] != 0; slot = (slot + 1) & tableMask) {
+			final int id = table[slot] - 1;
+			if (hashes[id] == hash && keyEquals(id, key, offset)) {
+				return -(id + 1);
+			}
+		}
+		if (size == count.length) {
+			grow();
+		}
+		final int id = size++;
+		System.arraycopy(key, offset, keys, id * words, words);
+		int nonStar = 0;
+		for (int col = 0; col < length; col++) {
+			final int w = id * words + fieldWord[col];
+			if (((keys[w] >>> fieldShift[col]) & fieldMask[col]) != 0) {
+				masks[w] |= fieldMask[col] << fieldShift[col];
+				nonStar++;
+			}
+		}
+		hashes[id] = hash;
+		ruleSize[id] = nonStar;
+		parent[id] = -1;
+		table[slot] = id + 1;
+		if (2 * size > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void grow () {
+		final int capacity = 2 * count.length;
+		keys = Arrays.copyOf(keys, capacity * words);
+		masks = Arrays.copyOf(masks, capacity * words);
+		hashes = Arrays.copyOf(hashes, capacity);
+		count = Arrays.copyOf(count, capacity);
+		score = Arrays.copyOf(score, capacity);
+		ruleSize = Arrays.copyOf(ruleSize, capacity);
+		minMarginalValue = Arrays.copyOf(minMarginalValue, capacity);
+		maxMarginalValue = Arrays.copyOf(maxMarginalValue, capacity);
+		counted = Arrays.copyOf(counted, capacity);
+		pruned = Arrays.copyOf(pruned, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		subRuleBound = Arrays.copyOf(subRuleBound, capacity);
+		childStart = Arrays.copyOf(childStart, capacity);
+		childEnd = Arrays.copyOf(childEnd, capacity);
+	}
+
+	private void rehash () {
+		table = new int[2 * table.length];
+		final int tableMask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hashes[id] & tableMask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & tableMask;
+			}
+			table[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Is the row packed at offset of rowKey covered by candidate id.
+	 */
+	public boolean matches (int id, long[] rowKey, int offset) {
+		final int idOffset = id * words;
+		for (int w = 0; w < words; w++) {
+			if ((rowKey[offset + w] & masks[idOffset + w]) != keys[idOffset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Is candidate sub a sub-rule of candidate sup.
+	 */
+	public boolean isSubRule (int sub, int sup) {
+		final int subOffset = sub * words;
+		final int supOffset = sup * words;
+		for (int w = 0; w < words; w++) {
+			if ((keys[supOffset + w] & masks[subOffset + w]) != keys[subOffset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the children lists of the parents of candidates from to to - 1, which must all be at the same level, with
+	 * their parents at the level below.
+	 */
+	public void linkLevel (int from, int to) {
+		int parentFrom = Integer.MAX_VALUE;
+		int parentTo = -1;
+		for (int id = from; id < to; id++) {
+			if (!pruned[id] && parent[id] >= 0) {
+				parentFrom = Math.min(parentFrom, parent[id]);
+				parentTo = Math.max(parentTo, parent[id] + 1);
+			}
+		}
+		if (parentTo < 0) {
+			return;
+		}
+		for (int id = parentFrom; id < parentTo; id++) {
+			childStart[id] = childEnd[id] = 0;
+		}
+		for (int id = from; id < to; id++) {
+			if (!pruned[id] && parent[id] >= 0) {
+				childEnd[parent[id]]++;
+			}
+		}
+		int offset = numChildren;
+		for (int id = parentFrom; id < parentTo; id++) {
+			childStart[id] = offset;
+			offset += childEnd[id];
+			childEnd[id] = childStart[id];
+		}
+		if (offset > children.length) {
+			children = Arrays.copyOf(children, Math.max(2 * children.length, offset));
+		}
+		for (int id = from; id < to; id++) {
+			if (!pruned[id] && parent[id] >= 0) {
+				children[childEnd[parent[id]]++] = id;
+			}
+		}
+		numChildren = offset;
+	}
+
+	public int numChildren (int id) {
+		return childEnd[id] - childStart[id];
+	}
+
+	public int child (int id, int i) {
+		return children[childStart[id] + i];
+	}
+
+	/**
+	 * Builds a Rule with the candidate's values and statistics.
+	 */
+	public Rule toRule (int id) {
+		Rule rule = new Rule(values(id));
+		rule.count = count[id];
+		rule.score = score[id];
+		rule.counted = counted[id];
+		rule.minMarginalValue = minMarginalValue[id];
+		rule.maxMarginalValue = maxMarginalValue[id];
+		rule.latestCountedMarginalValue = maxMarginalValue[id];
+		return rule;
+	}
+}
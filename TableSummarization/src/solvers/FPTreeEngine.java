@@ -0,0 +1,393 @@
+package solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import dataextraction.TableInfo;
+
+/**
+ * Finds the best marginal rule by FP-growth instead of level-wise candidate generation. The table is compressed into an
+ * FP-tree: each row is a path of its (column, value) items, most frequent first, and rows sharing a prefix share nodes.
+ * Rules are then mined depth-first through conditional trees, with no pass over the table after the tree is built.
+ * A row's weight depends on the best solution score covering it, so rows are put in classes by that score, and every node
+ * keeps one count per class. A rule of score s covering c_k rows of class k (of solution score t_k) has marginal value the
+ * sum of c_k * (s - min(s, t_k)), and no rule it is a sub-rule of can have more than the sum of c_k * (maxRuleScore -
+ * min(maxRuleScore, t_k)). A rule whose bound is not above the best value found so far is not extended.
+ * Items of requiredColumn are ordered last, so every rule having one is mined from the conditional tree of that item.
+ */
+public class FPTreeEngine implements MarginalRuleEngine {
+	TableInfo table;
+	Scorer scorer;
+	int maxRuleScore;
+	int maxRuleSize; // NonStarCountSolvers.ruleSizeLimit of the table.
+	int numClasses;
+	int[] classScore; // Solution score of each class, increasing, class 0 having score 0.
+	int[] itemCode; // columnOffset[col] + val of each item (col, val), items being numbered by decreasing frequency.
+	int[] itemColumn;
+	int[] itemValue;
+	int bestValue;
+	int[] bestItems;
+	int bestCount;
+
+	@Override
+	public Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer,
+			Integer requiredColumn) {
+		this.table = table;
+		this.scorer = scorer;
+		this.maxRuleScore = maxRuleScore;
+		maxRuleSize = NonStarCountSolvers.ruleSizeLimit(table);
+		final int length = table.dictionary.size();
+		final int[] columnOffset = new int[length + 1];
+		for (int col = 0; col < length; col++) {
+			columnOffset[col + 1] = columnOffset[col] + table.dictionary.get(col).size();
+		}
+		final int numValues = columnOffset[length];
+		setClasses(solution);
+
+		// One pass gives each row's class and the class counts of every (column, value).
+		final int[] rowClass = new int[table.numRows()];
+		final int[] valueCounts = rowClasses(solution, columnOffset, rowClass);
+
+		// Single value rules give a first best value, and values that cannot be part of a better rule are dropped.
+		bestValue = -1;
+		bestItems = null;
+		final int[] values = new int[length];
+		Arrays.fill(values, -1);
+		for (int col = 0; col < length; col++) {
+			if (requiredColumn != -1 && col != requiredColumn) {
+				continue;
+			}
+			for (int val = 0; val < table.dictionary.get(col).size(); val++) {
+				values[col] = val;
+				final int score = new Rule(table, toValueList(values), scorer).score;
+				final int value = marginalValue(valueCounts, (columnOffset[col] + val) * numClasses, score);
+				if (value > bestValue) {
+					bestValue = value;
+					bestItems = new int[] {columnOffset[col] + val};
+					bestCount = count(valueCounts, (columnOffset[col] + val) * numClasses);
+				}
+			}
+			values[col] = -1;
+		}
+		List<Integer> kept = new ArrayList<Integer>();
+		for (int v = 0; v < numValues; v++) {
+			if (bound(valueCounts, v * numClasses) > bestValue) {
+				kept.add(v);
+			}
+		}
+		itemCode = orderItems(kept, valueCounts, columnOffset, requiredColumn);
+		final int numItems = itemCode.length;
+		final int[] itemOfValue = new int[numValues];
+		Arrays.fill(itemOfValue, -1);
+		itemColumn = new int[numItems];
+		itemValue = new int[numItems];
+		int firstRequiredItem = numItems;
+		for (int item = 0; item < numItems; item++) {
+			itemOfValue[itemCode[item]] = item;
+			itemColumn[item] = columnOf(columnOffset, itemCode[item]);
+			itemValue[item] = itemCode[item] - columnOffset[itemColumn[item]];
+			if (itemColumn[item] == requiredColumn && firstRequiredItem == numItems) {
+				firstRequiredItem = item;
+			}
+		}
+		if (requiredColumn == -1) {
+			firstRequiredItem = 0;
+		}
+
+		final FPTree tree = new FPTree(numItems, numClasses);
+		final int[] weights = new int[numClasses]; // Class counts of a single tuple, only its class being non-zero.
+		final int[] tuple = new int[length];
+		final int[] path = new int[length];
+		for (int row = 0; row < rowClass.length; row++) {
+			table.fillRow(row, tuple);
+			int pathLength = 0;
+			for (int col = 0; col < length; col++) {
+				final int item = itemOfValue[columnOffset[col] + tuple[col]];
+				if (item != -1) {
+					int i = pathLength++;
+					for (; i > 0 && path[i - 1] > item; i--) {
+						path[i] = path[i - 1];
+					}
+					path[i] = item;
+				}
+			}
+			weights[rowClass[row]] = table.weight(row);
+			tree.insert(path, pathLength, weights, 0);
+			weights[rowClass[row]] = 0;
+		}
+
+		final int[] suffix = new int[maxRuleSize];
+		for (int item = numItems - 1; item >= firstRequiredItem; item--) {
+			mine(tree, item, suffix, 0);
+		}
+		if (bestItems == null) {
+			return null;
+		}
+		Arrays.fill(values, -1);
+		for (int value : bestItems) {
+			final int col = columnOf(columnOffset, value);
+			values[col] = value - columnOffset[col];
+		}
+		Rule rule = new Rule(table, toValueList(values), scorer);
+		rule.count = bestCount;
+		rule.counted = true;
+		rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue = bestValue;
+		return rule;
+	}
+
+	/**
+	 * Mines the rules made of item and the items of suffix (suffixSize of them), and their super-rules having more items of
+	 * tree, that is of the conditional tree of the suffix.
+	 */
+	void mine (FPTree tree, int item, int[] suffix, int suffixSize) {
+		final int[] counts = new int[numClasses];
+		for (int node = tree.head[item]; node != -1; node = tree.nodeLink[node]) {
+			for (int k = 0; k < numClasses; k++) {
+				counts[k] += tree.counts[node * numClasses + k];
+			}
+		}
+		if (bound(counts, 0) <= bestValue) {
+			return;
+		}
+		suffix[suffixSize++] = item;
+		final int[] values = new int[table.dictionary.size()];
+		Arrays.fill(values, -1);
+		for (int i = 0; i < suffixSize; i++) {
+			values[itemColumn[suffix[i]]] = itemValue[suffix[i]];
+		}
+		final int score = new Rule(table, toValueList(values), scorer).score;
+		final int value = marginalValue(counts, 0, score);
+		if (value > bestValue) {
+			bestValue = value;
+			bestCount = count(counts, 0);
+			bestItems = new int[suffixSize];
+			for (int i = 0; i < suffixSize; i++) {
+				bestItems[i] = itemCode[suffix[i]];
+			}
+		}
+		if (suffixSize == maxRuleSize || item == 0) {
+			return;
+		}
+
+		// Conditional tree of the suffix: the paths above the item's nodes, with the node counts, keeping the items that can
+		// still be part of a better rule.
+		final int[] itemCounts = new int[item * numClasses];
+		for (int node = tree.head[item]; node != -1; node = tree.nodeLink[node]) {
+			for (int p = tree.parent[node]; p > 0; p = tree.parent[p]) {
+				for (int k = 0; k < numClasses; k++) {
+					itemCounts[tree.item[p] * numClasses + k] += tree.counts[node * numClasses + k];
+				}
+			}
+		}
+		final boolean[] keep = new boolean[item];
+		boolean any = false;
+		for (int i = 0; i < item; i++) {
+			keep[i] = bound(itemCounts, i * numClasses) > bestValue;
+			any |= keep[i];
+		}
+		if (!any) {
+			return;
+		}
+		final FPTree conditional = new FPTree(item, numClasses);
+		final int[] path = new int[table.dictionary.size()];
+		for (int node = tree.head[item]; node != -1; node = tree.nodeLink[node]) {
+			int pathLength = 0;
+			for (int p = tree.parent[node]; p > 0; p = tree.parent[p]) {
+				if (keep[tree.item[p]]) {
+					path[pathLength++] = tree.item[p];
+				}
+			}
+			for (int i = 0, j = pathLength - 1; i < j; i++, j--) {
+				final int swap = path[i];
+				path[i] = path[j];
+				path[j] = swap;
+			}
+			conditional.insert(path, pathLength, tree.counts, node * numClasses);
+		}
+		for (int i = item - 1; i >= 0; i--) {
+			if (conditional.head[i] != -1) {
+				mine(conditional, i, suffix, suffixSize);
+			}
+		}
+	}
+
+	/**
+	 * Puts the distinct solution scores (and 0) in classScore.
+	 */
+	private void setClasses (Set<Rule> solution) {
+		int[] scores = new int[solution.size() + 1];
+		int numScores = 1;
+		for (Rule rule : solution) {
+			scores[numScores++] = rule.score;
+		}
+		Arrays.sort(scores, 0, numScores);
+		numClasses = 0;
+		classScore = new int[numScores];
+		for (int i = 0; i < numScores; i++) {
+			if (scores[i] >= 0 && (numClasses == 0 || scores[i] != classScore[numClasses - 1])) {
+				classScore[numClasses++] = scores[i];
+			}
+		}
+	}
+
+	private int classOf (int score) {
+		return Arrays.binarySearch(classScore, 0, numClasses, score);
+	}
+
+	/**
+	 * Sets the class of every row, and returns the class counts of every value, value v of column col having its counts at
+	 * (columnOffset[col] + v) * numClasses.
+	 */
+	private int[] rowClasses (final Set<Rule> solution, final int[] columnOffset, final int[] rowClass) {
+		final int length = table.dictionary.size();
+		final int[] rowScore = new SolutionCoverage(table, solution).rowScore;
+		return new ParallelCounter(columnOffset[length] * numClasses, true, false) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					final int rowClassOf = classOf(rowScore[row]);
+					rowClass[row] = rowClassOf;
+					final int weight = table.weight(row);
+					for (int col = 0; col < length; col++) {
+						counts[(columnOffset[col] + tuple[col]) * numClasses + rowClassOf] += weight;
+					}
+				}
+			}
+		}.count(table.numRows())[0];
+	}
+
+	/**
+	 * Kept values by decreasing count, those of requiredColumn last. Values are sorted as longs holding whether they are of
+	 * requiredColumn, then the count's complement, then the value.
+	 */
+	private int[] orderItems (List<Integer> kept, int[] valueCounts, int[] columnOffset, int requiredColumn) {
+		final int numItems = kept.size();
+		long[] keys = new long[numItems];
+		for (int i = 0; i < numItems; i++) {
+			final int v = kept.get(i);
+			final long required = columnOf(columnOffset, v) == requiredColumn ? 1 : 0;
+			keys[i] = required << 62 | ((long) (Integer.MAX_VALUE - count(valueCounts, v * numClasses))) << 31 | v;
+		}
+		Arrays.sort(keys);
+		int[] values = new int[numItems];
+		for (int i = 0; i < numItems; i++) {
+			values[i] = (int) (keys[i] & Integer.MAX_VALUE);
+		}
+		return values;
+	}
+
+	private static int columnOf (int[] columnOffset, int value) {
+		int col = 0;
+		while (columnOffset[col + 1] <= value) {
+			col++;
+		}
+		return col;
+	}
+
+	private int count (int[] counts, int offset) {
+		int count = 0;
+		for (int k = 0; k < numClasses; k++) {
+			count += counts[offset + k];
+		}
+		return count;
+	}
+
+	private int marginalValue (int[] counts, int offset, int score) {
+		int value = 0;
+		for (int k = 0; k < numClasses; k++) {
+			value += counts[offset + k] * (score - Math.min(score, classScore[k]));
+		}
+		return value;
+	}
+
+	private int bound (int[] counts, int offset) {
+		return marginalValue(counts, offset, maxRuleScore);
+	}
+
+	private static List<Integer> toValueList (int[] values) {
+		List<Integer> valueList = new ArrayList<Integer>(values.length);
+		for (int val : values) {
+			valueList.add(val);
+		}
+		return valueList;
+	}
+
+	/**
+	 * Prefix tree of item paths, items increasing along each path, in parallel arrays indexed by node. Node 0 is the root.
+	 * Each node has numClasses counts, and the nodes of each item are chained from head[item] through nodeLink.
+	 */
+	static class FPTree {
+		final int numClasses;
+		int size;
+		int[] item;
+		int[] parent;
+		int[] firstChild;
+		int[] nextSibling;
+		int[] nodeLink;
+		int[] counts;
+		final int[] head;
+
+		FPTree (int numItems, int numClasses) {
+			this.numClasses = numClasses;
+			final int capacity = 64;
+			item = new int[capacity];
+			parent = new int[capacity];
+			firstChild = new int[capacity];
+			nextSibling = new int[capacity];
+			nodeLink = new int[capacity];
+			counts = new int[capacity * numClasses];
+			head = new int[numItems];
+			Arrays.fill(head, -1);
+			size = 1;
+			item[0] = -1;
+			parent[0] = -1;
+			firstChild[0] = -1;
+			nextSibling[0] = -1;
+		}
+
+		/**
+		 * Adds the path of pathLength items, with the numClasses counts at offset of weights, to the tree.
+		 */
+		void insert (int[] path, int pathLength, int[] weights, int offset) {
+			int node = 0;
+			for (int i = 0; i < pathLength; i++) {
+				int child = firstChild[node];
+				while (child != -1 && item[child] != path[i]) {
+					child = nextSibling[child];
+				}
+				if (child == -1) {
+					child = addNode(node, path[i]);
+				}
+				for (int k = 0; k < numClasses; k++) {
+					counts[child * numClasses + k] += weights[offset + k];
+				}
+				node = child;
+			}
+		}
+
+		private int addNode (int parentNode, int nodeItem) {
+			if (size == item.length) {
+				final int capacity = 2 * size;
+				item = Arrays.copyOf(item, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				nextSibling = Arrays.copyOf(nextSibling, capacity);
+				nodeLink = Arrays.copyOf(nodeLink, capacity);
+				counts = Arrays.copyOf(counts, capacity * numClasses);
+			}
+			final int node = size++;
+			item[node] = nodeItem;
+			parent[node] = parentNode;
+			firstChild[node] = -1;
+			nextSibling[node] = firstChild[parentNode];
+			firstChild[parentNode] = node;
+			nodeLink[node] = head[nodeItem];
+			head[nodeItem] = node;
+			return node;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package solvers;
+
+import java.io.IOException;
+import java.util.Set;
+
+import dataextraction.TableInfo;
+
+/**
+ * Greedy solver picking one rule at a time with getBestMarginalRule, that keeps the candidates it has counted between
+ * picks. The cache holds every candidate counted so far with its count and its marginal value given the solution. After
+ * a pick, only the rows covered by the new rule with a higher score than by the solution are updated, in the solution's
+ * coverage and in the marginal values of the cached candidates covering them, and the next pick only counts candidates
+ * that are not cached.
+ * Each pick explores the same candidates as a fresh getBestMarginalRule call, so the solution is the same.
+ */
+public class IncrementalGreedySolver {
+	final TableInfo table;
+	final Integer maxRuleScore;
+	final Scorer scorer;
+	final Integer requiredColumn;
+	final CandidateTable cache;
+	final SolutionCoverage coverage;
+	final SearchBudget budget; // Checked within every pick, if not null.
+	final SearchStats stats; // Added to by every pick, if not null.
+
+	public IncrementalGreedySolver (TableInfo table, Integer maxRuleScore, Scorer scorer, Integer requiredColumn) {
+		this(table, maxRuleScore, scorer, requiredColumn, null, null);
+	}
+
+	public IncrementalGreedySolver (TableInfo table, Integer maxRuleScore, Scorer scorer, Integer requiredColumn,
+			SearchBudget budget, SearchStats stats) {
+		this.table = table;
+		this.maxRuleScore = maxRuleScore;
+		this.scorer = scorer;
+		this.requiredColumn = requiredColumn;
+		cache = new CandidateTable(table);
+		coverage = new SolutionCoverage(table);
+		this.budget = budget;
+		this.stats = stats;
+	}
+
+	public Set<Rule> getSolution () {
+		return coverage.rules;
+	}
+
+	/**
+	 * Adds the rule with the most marginal value to the solution, and returns it. Returns null, leaving the solution as it
+	 * is, if there is no rule or the budget expired during the pick.
+	 */
+	public Rule next () throws IOException {
+		final Rule rule = NonStarCountSolvers.getBestMarginalRule(table, maxRuleScore, coverage, scorer, requiredColumn, false,
+				cache, budget, stats);
+		if (rule == null) {
+			return null;
+		}
+		updateMarginalValues(rule);
+		coverage.rules.add(rule);
+		return rule;
+	}
+
+	/**
+	 * Raises the coverage's score of the rows covered by rule, and lowers the marginal values of the cached candidates on
+	 * the rows whose score it raises: a candidate of score s loses min(s, rule.score) - min(s, old score) on such a row.
+	 */
+	private void updateMarginalValues (final Rule rule) {
+		final int length = table.dictionary.size();
+		final int ruleScore = rule.score;
+		final int[] rowScore = coverage.rowScore;
+		final NonStarCountSolvers.CandidateBuckets buckets = new NonStarCountSolvers.CandidateBuckets(cache, 0, cache.size(), false);
+		final int[] losses = new ParallelCounter(cache.size(), false, true) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] tuple = new int[length];
+				final long[] rowKey = new long[cache.words()];
+				for (int row = from; row < to; row++) {
+					final int oldScore = rowScore[row];
+					if (oldScore >= ruleScore) {
+						continue;
+					}
+					table.fillRow(row, tuple);
+					if (!Rule.isSubRule(rule, tuple)) {
+						continue;
+					}
+					rowScore[row] = ruleScore;
+					final int weight = table.weight(row);
+					cache.encode(tuple, rowKey, 0);
+					for (int col = 0; col < length; col++) {
+						final int bucket = buckets.bucket(col, tuple[col]);
+						for (int i = buckets.start[bucket]; i < buckets.start[bucket + 1]; i++) {
+							final int id = buckets.ids[i];
+							final int score = cache.score[id];
+							if (score > oldScore && cache.matches(id, rowKey, 0)) {
+								marginalValues[id] += weight * (Math.min(score, ruleScore) - oldScore);
+							}
+						}
+					}
+				}
+			}
+		}.count(table.numRows())[1];
+		for (int id = 0; id < cache.size(); id++) {
+			cache.minMarginalValue[id] -= losses[id];
+			cache.maxMarginalValue[id] -= losses[id];
+		}
+	}
+}
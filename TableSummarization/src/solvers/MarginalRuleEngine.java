@@ -0,0 +1,16 @@
+package solvers;
+
+import java.io.IOException;
+import java.util.Set;
+
+import dataextraction.TableInfo;
+
+/**
+ * Finds the rule that adds the most marginal value to a solution, as NonStarCountSolvers.getBestMarginalRule does. The
+ * rule has at most NonStarCountSolvers.ruleSizeLimit non-star values, and a non-star value in requiredColumn unless that
+ * is -1. getSolution uses NonStarCountSolvers.marginalRuleEngine.
+ */
+public interface MarginalRuleEngine {
+	public Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer,
+			Integer requiredColumn) throws IOException;
+}
@@ -9,19 +9,72 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Scanner;
 import java.util.Set;
 
 import solvers.Rule.sizeScorer;
+import dataextraction.BitmapIndex;
+import dataextraction.CompressedBitmap;
 import dataextraction.Marketing;
+import dataextraction.PackedRows;
+import dataextraction.PrimitiveColumn;
 import dataextraction.SampleHandler;
 import dataextraction.TableInfo;
 import dataextraction.TableSample;
 
 public class NonStarCountSolvers {
+	// Lattice levels that getCandidateRules and getBestMarginalRule generate and count in each pass over the table. Levels
+	// after the first of a pass are pruned with the counts known at the start of the pass only, so more of them get counted.
+	public static int levelsPerPass = 1;
+	// Engine getSolution finds each rule with. LatticeEngine is getBestMarginalRule, EclatEngine is the same lattice counted
+	// from tid-lists, and FPTreeEngine mines an FP-tree instead.
+	public static MarginalRuleEngine marginalRuleEngine = new LatticeEngine();
+	// Whether getSolution over a list of candidate rules picks them lazily (see getLazyGreedySolution).
+	public static boolean lazyGreedy = false;
+	// If positive, getSolution over a list of candidate rules picks them by stochastic greedy with this epsilon (see
+	// getStochasticGreedySolution).
+	public static double stochasticEpsilon = 0;
+	// Sample size and relative safety margin of estimateMaxRuleScore.
+	public static int pilotSampleSize = 1000;
+	public static double maxRuleScoreMargin = 0.25;
+	// Levels of fewer candidates than twice this are scored and pruned on the calling thread (see pruneLevel).
+	public static int minCandidatesPerRange = 1 << 10;
+	// Whether pruneLevel may call the Scorer from several threads. Set to false to score candidates on the calling thread,
+	// for scorers that are not safe to call concurrently.
+	public static boolean parallelScoring = true;
+	// Most non-star values of the rules the solvers look at. By default the depth is left to the bounds: levels are generated
+	// as long as some candidate can still beat the best rule, up to the number of columns.
+	public static int maxRuleSize = Integer.MAX_VALUE;
+	// getBestMarginalRule stops going deeper if a level's candidates are estimated to take more than this fraction of the
+	// heap that is left, and returns the best rule of the levels so far (setting SearchStats.depthLimited).
+	public static double maxLevelHeapFraction = 0.5;
+
+	/**
+	 * The level-wise candidate lattice of getBestMarginalRule, as a MarginalRuleEngine.
+	 */
+	public static class LatticeEngine implements MarginalRuleEngine {
+		@Override
+		public Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer,
+				Integer requiredColumn) throws IOException {
+			return NonStarCountSolvers.getBestMarginalRule(table, maxRuleScore, solution, scorer, requiredColumn);
+		}
+	}
+
+	/**
+	 * getBestMarginalRule with the candidates counted from TidLists instead of passes over the table.
+	 */
+	public static class EclatEngine implements MarginalRuleEngine {
+		@Override
+		public Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer,
+				Integer requiredColumn) throws IOException {
+			return NonStarCountSolvers.getBestMarginalRule(table, maxRuleScore, solution, scorer, requiredColumn, true);
+		}
+	}
+
 	public static Integer intersectionCount (Rule r1, Rule r2, Map<Rule, Rule> ruleMap) {
 		if (!Rule.areConsistent(r1, r2)) {
 			return 0;
@@ -130,6 +183,65 @@ public class NonStarCountSolvers {
 		}
 	}
 	
+	/**
+	 * countUpperBound (Rule, Map), also bounded by the table's count cube if it has one.
+	 */
+	public static Integer countUpperBound (TableInfo table, Rule r, Map<Rule, Rule> ruleMap) {
+		final int maxCount = countUpperBound(r, ruleMap);
+		return table.countCube == null ? maxCount : Math.min(maxCount, table.countCube.countUpperBound(r));
+	}
+
+	/**
+	 * countUpperBound (Rule, RuleArena), also bounded by the table's count cube if it has one.
+	 */
+	public static Integer countUpperBound (TableInfo table, Rule r, RuleArena arena) {
+		final int maxCount = countUpperBound(r, arena);
+		return table.countCube == null ? maxCount : Math.min(maxCount, table.countCube.countUpperBound(r));
+	}
+
+	/**
+	 * Same as countUpperBound (Rule, Map), for the rules of an arena. Sub-rules of r are enumerated in place, and looked up
+	 * without building them. Sub-rules that are not counted yet are skipped.
+	 */
+	public static Integer countUpperBound (Rule r, RuleArena arena) {
+		int maxCount = Integer.MAX_VALUE;
+		final SubRuleEnumerator subRules = new SubRuleEnumerator(r.length());
+		for (int i = 1; i <= r.size(); i++) {
+			subRules.reset(r, i);
+			while (subRules.next()) {
+				final int id = arena.find(subRules.values);
+				if (id != -1 && arena.get(id).counted) {
+					maxCount = Math.min(maxCount, arena.get(id).count);
+				}
+			}
+		}
+		return maxCount;
+	}
+	
+	/**
+	 * Same as setMarginalValueUpperBound (Rule, Integer, Map), for the rules of an arena.
+	 */
+	public static void setMarginalValueUpperBound (Rule r, Integer ruleCountBound, RuleArena arena) {
+		int maxValue = Integer.MAX_VALUE;
+		final SubRuleEnumerator subRules = new SubRuleEnumerator(r.length());
+		for (int i = 1; i <= r.size(); i++) {
+			subRules.reset(r, i);
+			while (subRules.next()) {
+				final int id = arena.find(subRules.values);
+				if (id != -1) {
+					final Rule subRuleWithInfo = arena.get(id);
+					final int value = ruleCountBound * (r.score - subRuleWithInfo.score) + subRuleWithInfo.maxMarginalValue;
+					maxValue = Math.min(maxValue, value);
+				}
+			}
+		}
+		r.maxMarginalValue = maxValue;
+		final Rule rule = arena.get(r.key());
+		if (rule != null) {
+			rule.maxMarginalValue = maxValue;
+		}
+	}
+	
 
 	/**
 	 * Find upper bound on the marginal value of all subrules of r having score <= maxRuleScore. 
@@ -200,78 +312,98 @@ public class NonStarCountSolvers {
 	 * Similar to subRuleMarginalValueUpperBound but only tries to find a bound upto bestRuleMarginalValue, then terminates, since
 	 * if the bound is less than bestRuleMarginalValue, we are going to delete the rule anyway.
 	 */
-	public static Integer subRuleMarginalValueUpperBoundLimited (Rule r, Map<List<Integer>, Rule> ruleListMap, Map<Rule, Rule> ruleMap, Map<Rule, Set<Rule>> superRules, 
-			Integer maxRuleScore, Integer bestRuleMarginalValue) {
+	public static Integer subRuleMarginalValueUpperBoundLimited (Rule r, RuleArena arena, Integer maxRuleScore, 
+			Integer bestRuleMarginalValue) {
 		Integer ruleCount = Integer.MAX_VALUE;
-		Rule rule = ruleMap.get(r);
+		Rule rule = arena.get(r.key());
 		if (rule != null && rule.counted) {
 			ruleCount = rule.count;
 		}
 		int maxValue = Integer.MAX_VALUE;
 		
 		// First we look at immediate sub-rules of r, and hope that those will be enough to give us a bound below bestRuleMarginalValue
-		List<Integer> immediateSubRuleValues = new ArrayList<Integer>();
-		for (int i = 0; i < r.length(); i++) {
-			immediateSubRuleValues.add(r.get(i));
-		}
-		for (int i : r.valueMap.keySet()) {
-			immediateSubRuleValues.set(i, -1);
-			Rule subRuleWithInfo = ruleListMap.get(immediateSubRuleValues);
-			if (subRuleWithInfo != null) {
+		final SubRuleEnumerator subRules = new SubRuleEnumerator(r.length());
+		subRules.reset(r, r.size() - 1);
+		while (subRules.next()) {
+			final int subRuleId = arena.find(subRules.values);
+			if (subRuleId != -1) {
+				final Rule subRuleWithInfo = arena.get(subRuleId);
 				final int value = Math.min(ruleCount, subRuleWithInfo.count)  * (maxRuleScore - subRuleWithInfo.score) + subRuleWithInfo.maxMarginalValue;
 				maxValue = Math.min(maxValue, value);
 				if (maxValue < bestRuleMarginalValue) {
 					return maxValue;
 				}
 			}
-			immediateSubRuleValues.set(i, r.get(i));
 		}
-		/*
-		Set<Rule> immediateSubRules = r.findSubRules(r.size() - 1);
-		for (Rule subRule : immediateSubRules) {
-			Rule subRuleWithInfo = ruleMap.get(subRule);
-			if (subRuleWithInfo != null) {
-				final int value = Math.min(ruleCount, subRuleWithInfo.count)  * (maxRuleScore - subRuleWithInfo.score) + subRuleWithInfo.maxMarginalValue;
-				maxValue = Math.min(maxValue, value);
-				if (maxValue < bestRuleMarginalValue) {
-					return maxValue;
-				}
-			}
-		}*/
 		
-		//long ini = System.currentTimeMillis();
-		//for (int jj = 0; jj < 10000; jj++) {} out.println("boo " + (System.currentTimeMillis() - ini)); System.exit(1);
-		Set<Rule> subRules = r.findSubRules(1);
+		// Every rule of the arena is linked under one of its sub-rules, so walking up the super-rule links from the single
+		// value sub-rules of r visits exactly the sub-rules of r in the arena. They are enumerated level by level instead.
 		for (int i = 1; i <= r.size() - 1; i++) {
-			Set<Rule> superRuleSet = new HashSet<Rule>();
-			for (Rule subRule : subRules) {
-				final Set<Rule> ruleSuperRuleSet = superRules.get(subRule);
-				if (ruleSuperRuleSet == null) {
-					continue;
-				}
-				for (Rule superRule : ruleSuperRuleSet) {
-					if (Rule.isSubRule(superRule, r)) {
-						superRuleSet.add(superRule);
-					}
-				}
-				final Rule subRuleWithInfo = ruleMap.get(subRule);
-				if (subRuleWithInfo == null) {
+			subRules.reset(r, i);
+			while (subRules.next()) {
+				final int id = arena.find(subRules.values);
+				if (id == -1) {
 					continue;
 				}
-				final int value = Math.min(ruleCount, subRuleWithInfo.count)  * (maxRuleScore - subRuleWithInfo.score) + subRuleWithInfo.maxMarginalValue;
+				final Rule subRule = arena.get(id);
+				final int value = Math.min(ruleCount, subRule.count)  * (maxRuleScore - subRule.score) + subRule.maxMarginalValue;
 				maxValue = Math.min(maxValue, value);
 				if (maxValue < bestRuleMarginalValue) {
 					return maxValue;
 				}
 			}
-			subRules = superRuleSet;
 		}
 		return maxValue;
 	}
 	
+	private static List<Integer> toValueList (int[] tuple) {
+		List<Integer> values = new ArrayList<Integer>(tuple.length);
+		for (int val : tuple) {
+			values.add(val);
+		}
+		return values;
+	}
+	
 	public static List<List<Integer>> getSingleCounts (TableInfo table) {
 		List<List<Integer>> counts = new ArrayList<List<Integer>>();
 		int numColumns = table.dictionary.size();
+		if (table.bitmapIndex != null) {
+			for (int i = 0; i < numColumns; i++) {
+				final List<Integer> colCounts = new ArrayList<Integer>();
+				for (int j = 0; j < table.dictionary.get(i).size(); j++) {
+					colCounts.add(table.bitmapIndex.count(i, j));
+				}
+				counts.add(colCounts);
+			}
+			return counts;
+		}
+		if (table.countCube != null && table.countCube.coversColumns()) {
+			for (int i = 0; i < numColumns; i++) {
+				final List<Integer> colCounts = new ArrayList<Integer>();
+				for (int j = 0; j < table.dictionary.get(i).size(); j++) {
+					colCounts.add(table.countCube.count(i, j));
+				}
+				counts.add(colCounts);
+			}
+			return counts;
+		}
+		if (table.columnStore != null) {
+			// Column at a time, straight off the primitive arrays.
+			final int numRows = table.numRows();
+			for (int i = 0; i < numColumns; i++) {
+				final PrimitiveColumn column = table.columnStore.getColumn(i);
+				final int[] colCounts = new int[table.dictionary.get(i).size()];
+				for (int row = 0; row < numRows; row++) {
+					colCounts[column.get(row)] += table.weight(row);
+				}
+				final List<Integer> colCountList = new ArrayList<Integer>(colCounts.length);
+				for (int count : colCounts) {
+					colCountList.add(count);
+				}
+				counts.add(colCountList);
+			}
+			return counts;
+		}
 		for (int i = 0; i < numColumns; i++) {
 			final List<Integer> colCounts = new ArrayList<Integer>();
 			counts.add(colCounts);
@@ -279,11 +411,14 @@ public class NonStarCountSolvers {
 				colCounts.add(0);
 			}
 		}
-		for (List<Integer> tuple : table.contents) {
+		final int numRows = table.numRows();
+		final int[] tuple = new int[table.dictionary.size()];
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
 			int i=0;
-			for (Integer val : tuple) {
+			for (int val : tuple) {
 				final List<Integer> colCounts = counts.get(i);
-				colCounts.set(val, colCounts.get(val) + 1);
+				colCounts.set(val, colCounts.get(val) + table.weight(row));
 				i++;
 			}
 		}
@@ -291,6 +426,10 @@ public class NonStarCountSolvers {
 	}
 
 	public static List<List<Rule>> getSingleRulesWithMarginalValues (TableInfo table, Set<Rule> solution, Scorer scorer) {
+		return getSingleRulesWithMarginalValues(table, new SolutionCoverage(table, solution), scorer);
+	}
+
+	public static List<List<Rule>> getSingleRulesWithMarginalValues (final TableInfo table, SolutionCoverage coverage, Scorer scorer) {
 		final Integer length = table.dictionary.size();
 		List<List<Rule>> singleRules = new ArrayList<List<Rule>>();
 		int numColumns = table.dictionary.size();
@@ -300,27 +439,43 @@ public class NonStarCountSolvers {
 			for (int j = 0; j < table.dictionary.get(i).size(); j++) {
 				Map<Integer, Integer> valueMap = new HashMap<Integer, Integer>();
 				valueMap.put(i, j);
-				Rule rooh = new Rule (table, valueMap, length, 0, false, scorer);
 				colRules.add(new Rule (table, valueMap, length, 0, false, scorer));
 			}
 		}
-		for (List<Integer> tuple : table.contents) {
-			int i=0;
-			for (Integer val : tuple) {
-				Integer maxScore = 0;
-				for (Rule r : solution) {
-					if (Rule.isSubRule(r, tuple) && r.score > maxScore) {
-						maxScore = r.score;
+		// Single value rule (col, val) has id columnOffset[col] + val.
+		final int[] columnOffset = new int[numColumns + 1];
+		for (int i = 0; i < numColumns; i++) {
+			columnOffset[i + 1] = columnOffset[i] + table.dictionary.get(i).size();
+		}
+		final int[] scores = new int[columnOffset[numColumns]];
+		for (int i = 0; i < numColumns; i++) {
+			for (int j = 0; j < table.dictionary.get(i).size(); j++) {
+				scores[columnOffset[i] + j] = singleRules.get(i).get(j).score;
+			}
+		}
+		final int[] rowScore = coverage.rowScore;
+		final int[][] result = new ParallelCounter(scores.length) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					final int maxScore = rowScore[row];
+					final int weight = table.weight(row);
+					for (int i = 0; i < length; i++) {
+						final int id = columnOffset[i] + tuple[i];
+						counts[id] += weight;
+						marginalValues[id] += weight * (scores[id] - Math.min(scores[id], maxScore));
 					}
 				}
-				final Rule singleRule = singleRules.get(i).get(val);
-				singleRule.count++;
-				singleRule.latestCountedMarginalValue += singleRule.score - Math.min(singleRule.score, maxScore);
-				i++;
 			}
-		}
-		for (List<Rule> colRules : singleRules) {
-			for (Rule rule : colRules) {
+		}.count(table.numRows());
+		for (int i = 0; i < numColumns; i++) {
+			final List<Rule> colRules = singleRules.get(i);
+			for (int j = 0; j < colRules.size(); j++) {
+				final Rule rule = colRules.get(j);
+				rule.count += result[0][columnOffset[i] + j];
+				rule.latestCountedMarginalValue += result[1][columnOffset[i] + j];
 				rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
 				rule.counted = true;
 			}
@@ -329,62 +484,165 @@ public class NonStarCountSolvers {
 	}
 	
 	/**
-	 * Does counting for rules that of size ruleSizeToCount that have counted set to false.
+	 * Rules of a given size covering a tuple, found by walking up the superRules links from the single value rules
+	 * covering it. The rules are put in a RuleArena with int adjacency once (see linkedArena), which counting threads share,
+	 * and each thread's walk reuses its own buffers, so it allocates nothing per tuple.
 	 */
-	public static void updateCounts (TableInfo table, Map<Rule, Rule> ruleMap, Integer ruleSizeToCount, Map<Rule, Set<Rule>> superRules) {
-		for (List<Integer> tuple : table.contents) {
-			Rule tupleRule = new Rule(tuple);
-			int currentSize = 1;
-			Set<Rule> rules = new HashSet<Rule>();
-			Set<Rule> nextRules = tupleRule.findSubRules(currentSize);
-			Set<Rule> nextToNextRules;
-			do {
-				currentSize++;
-				if (currentSize > ruleSizeToCount) {
-					rules.addAll(nextRules);
+	static class CoveringRules {
+		final RuleArena arena;
+		final int[] values;
+		final int[] rules; // Ids of the rules found, numRules of them.
+		int numRules;
+		int[] level; // Rules of the size being walked.
+		int[] nextLevel;
+		final int[] seen; // Walk in which each rule was last reached, so that a rule linked twice is only taken once.
+		int walk;
+
+		CoveringRules (RuleArena arena, int length) {
+			this.arena = arena;
+			values = new int[length];
+			Arrays.fill(values, -1);
+			rules = new int[arena.size()];
+			level = new int[arena.size()];
+			nextLevel = new int[arena.size()];
+			seen = new int[arena.size()];
+		}
+
+		/**
+		 * The rules of ruleMap in a RuleArena, linked to their superRules.
+		 */
+		static RuleArena linkedArena (Map<Rule, Rule> ruleMap, Map<Rule, Set<Rule>> superRules) {
+			final RuleArena arena = new RuleArena();
+			for (Rule rule : ruleMap.values()) {
+				arena.add(rule);
+			}
+			arena.link(superRules);
+			return arena;
+		}
+
+		/**
+		 * Finds the rules of sizes minSize to size covering tuple.
+		 */
+		void find (int[] tuple, int minSize, int size) {
+			walk++;
+			numRules = 0;
+			int levelSize = 0;
+			for (int col = 0; col < values.length; col++) {
+				values[col] = tuple[col];
+				final int id = arena.find(values);
+				values[col] = -1;
+				if (id != -1) {
+					level[levelSize++] = id;
+				}
+			}
+			for (int currentSize = 1; levelSize > 0; currentSize++) {
+				if (currentSize >= minSize) {
+					System.arraycopy(level, 0, rules, numRules, levelSize);
+					numRules += levelSize;
+				}
+				if (currentSize == size) {
 					break;
 				}
-				nextToNextRules = new HashSet<Rule>();
-				for (Rule nextRule : nextRules) {
-					final Set<Rule> successors = superRules.get(nextRule);
-					for (Rule successor : successors) {
-						if (Rule.isSubRule(successor, tuple)) {
-							nextToNextRules.add(successor);
+				int nextLevelSize = 0;
+				for (int i = 0; i < levelSize; i++) {
+					for (int c = 0; c < arena.numChildren(level[i]); c++) {
+						final int child = arena.child(level[i], c);
+						if (seen[child] != walk && Rule.isSubRule(arena.get(child), tuple)) {
+							seen[child] = walk;
+							nextLevel[nextLevelSize++] = child;
 						}
 					}
 				}
-				nextRules = nextToNextRules;
-				//out.println(nextRules.size());
-			} while (!nextToNextRules.isEmpty());
-			for (Rule rule : rules) {
-				if (!ruleMap.get(rule).counted) {
-					ruleMap.get(rule).count++;
+				final int[] swap = level;
+				level = nextLevel;
+				nextLevel = swap;
+				levelSize = nextLevelSize;
+			}
+		}
+	}
+
+	/**
+	 * Does counting for rules that of size ruleSizeToCount that have counted set to false.
+	 */
+	public static void updateCounts (TableInfo table, Map<Rule, Rule> ruleMap, Integer ruleSizeToCount, Map<Rule, Set<Rule>> superRules) {
+		updateCounts(table, ruleMap, ruleSizeToCount, ruleSizeToCount, superRules);
+	}
+
+	/**
+	 * Does counting for rules of sizes minSizeToCount to maxSizeToCount that have counted set to false, in a single pass.
+	 */
+	public static void updateCounts (final TableInfo table, Map<Rule, Rule> ruleMap, final int minSizeToCount, final int maxSizeToCount,
+			Map<Rule, Set<Rule>> superRules) {
+		final RuleArena arena = CoveringRules.linkedArena(ruleMap, superRules);
+		final int length = table.dictionary.size();
+		final int[] counts = new ParallelCounter(arena.size(), true, false) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final CoveringRules coveringRules = new CoveringRules(arena, length);
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					coveringRules.find(tuple, minSizeToCount, maxSizeToCount);
+					final int weight = table.weight(row);
+					for (int i = 0; i < coveringRules.numRules; i++) {
+						counts[coveringRules.rules[i]] += weight;
+					}
 				}
 			}
+		}.count(table.numRows())[0];
+		for (int id = 0; id < arena.size(); id++) {
+			final Rule rule = arena.get(id);
+			if (!rule.counted) {
+				rule.count += counts[id];
+			}
 		}
 		for (Rule rule : ruleMap.values()) {
 			rule.counted = true;
 		}
 	}
-	
+
 	/**
 	 * Hashes rules to be coutned according to a single value in an arbitrary column. Uses those to access potential rules coverign each tuple.
 	 */
 	public static void updateCountsSingleHash (TableInfo table, Map<Rule, Rule> ruleMap) {
-		final Integer length = table.dictionary.size();
-		Map<Integer, Map<Integer, Set<Rule>>> singleHashMap = new HashMap<Integer, Map<Integer, Set<Rule>>>();
-		for (int i = 0; i < length; i++) {
-			singleHashMap.put(i, new HashMap<Integer, Set<Rule>>());
-			for (int j = 0; j < table.dictionary.get(i).size(); j++) {
-				singleHashMap.get(i).put(j, new HashSet<Rule>());
-			}
+		if (table.bitmapIndex != null) {
+			updateCountsBitmapIndex(table, ruleMap, null);
+			return;
+		}
+		countSingleHash(table, ruleMap, null);
+	}
+
+	/**
+	 * Counts the uncounted rules of ruleMap in a parallel pass over the table. If coverage is not null, also sets marginal
+	 * values. Each rule is put in the bucket of one of its values, picked at random, and is only checked against the rows
+	 * having that value. Buckets are CSR-style: the ids (indices in rules) of bucket b are ids[start[b]] to
+	 * ids[start[b + 1] - 1], and the bucket of (col, val) is columnOffset[col] + val.
+	 */
+	private static void countSingleHash (final TableInfo table, Map<Rule, Rule> ruleMap, SolutionCoverage coverage) {
+		final boolean marginal = coverage != null;
+		final int[] rowScore = marginal ? coverage.rowScore : null;
+		final int length = table.dictionary.size();
+		final int[] columnOffset = new int[length + 1];
+		for (int col = 0; col < length; col++) {
+			columnOffset[col + 1] = columnOffset[col] + table.dictionary.get(col).size();
 		}
+		final int numBuckets = columnOffset[length];
+		final int[] start = new int[numBuckets + 1];
+		List<Rule> ruleList = new ArrayList<Rule>();
+		List<Integer> ruleBuckets = new ArrayList<Integer>();
 		for (Rule rule : ruleMap.values()) {
 			if (!rule.counted) {
+				if (marginal) {
+					rule.count = 0;
+					rule.latestCountedMarginalValue = 0;
+				}
 				int ruleSize = rule.size();
 				for (int key : rule.valueMap.keySet()) {
 					if (Math.random() < 1.0/ruleSize) {
-						singleHashMap.get(key).get(rule.get(key)).add(rule);
+						final int bucket = columnOffset[key] + rule.get(key);
+						ruleList.add(rule);
+						ruleBuckets.add(bucket);
+						start[bucket + 1]++;
 						break;
 					} else {
 						ruleSize--;
@@ -392,151 +650,259 @@ public class NonStarCountSolvers {
 				}
 			}
 		}
-		
-		for (List<Integer> tuple : table.contents) {
-			for (int i = 0; i < length; i++) {
-				final int val = tuple.get(i);
-				for (Rule rule : singleHashMap.get(i).get(val)) {
-					if (Rule.isSubRule(rule, tuple)) {
-						rule.count++;
+		for (int b = 0; b < numBuckets; b++) {
+			start[b + 1] += start[b];
+		}
+		final Rule[] rules = ruleList.toArray(new Rule[ruleList.size()]);
+		final int[] scores = new int[rules.length];
+		final int[] ids = new int[rules.length];
+		final int[] next = Arrays.copyOf(start, numBuckets);
+		for (int id = 0; id < rules.length; id++) {
+			scores[id] = rules[id].score;
+			ids[next[ruleBuckets.get(id)]++] = id;
+		}
+
+		final PackedRows packedRows = table.packedRows;
+		final PackedRuleSet[] packedBuckets = packedRows == null ? null : packBuckets(packedRows, rules, start, ids);
+		final int[][] result = new ParallelCounter(rules.length) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					final int weight = table.weight(row);
+					final int maxScore = marginal ? rowScore[row] : 0;
+					if (packedRows != null) {
+						for (int col = 0; col < length; col++) {
+							final int bucket = columnOffset[col] + packedRows.get(row, col);
+							final PackedRuleSet packedBucket = packedBuckets[bucket];
+							for (int k = 0; k < packedBucket.size(); k++) {
+								if (packedBucket.matches(k, row)) {
+									final int id = ids[start[bucket] + k];
+									counts[id] += weight;
+									marginalValues[id] += weight * (scores[id] - Math.min(scores[id], maxScore));
+								}
+							}
+						}
+					} else {
+						table.fillRow(row, tuple);
+						for (int col = 0; col < length; col++) {
+							final int bucket = columnOffset[col] + tuple[col];
+							for (int i = start[bucket]; i < start[bucket + 1]; i++) {
+								final int id = ids[i];
+								if (Rule.isSubRule(rules[id], tuple)) {
+									counts[id] += weight;
+									marginalValues[id] += weight * (scores[id] - Math.min(scores[id], maxScore));
+								}
+							}
+						}
 					}
 				}
 			}
+		}.count(table.numRows());
+		for (int id = 0; id < rules.length; id++) {
+			rules[id].count += result[0][id];
+			if (marginal) {
+				rules[id].latestCountedMarginalValue += result[1][id];
+			}
 		}
 		for (Rule rule : ruleMap.values()) {
 			rule.counted = true;
+			if (marginal) {
+				rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
+			}
 		}
 	}
-	
-	// More efficient function for updating counts of rules of size 2. In the ends, sets all rules.counted to true.
-	public static void updateCountsSizeTwo (TableInfo table, Map<Rule, Rule> ruleMap) {
-		Map<List<Integer>, Rule> smallerRuleMap = new HashMap<List<Integer>, Rule>();
-		for (Rule rule : ruleMap.values()) {
-			if (!rule.counted && rule.size() == 2) {
-				smallerRuleMap.put(rule.values, rule);
-			}
+
+	/**
+	 * Converts the single hash buckets into PackedRuleSets, the k^th rule of bucket b's set being rules[ids[start[b] + k]].
+	 */
+	private static PackedRuleSet[] packBuckets (PackedRows packedRows, Rule[] rules, int[] start, int[] ids) {
+		PackedRuleSet[] buckets = new PackedRuleSet[start.length - 1];
+		for (int b = 0; b < buckets.length; b++) {
+			List<Rule> bucketRules = new ArrayList<Rule>(start[b + 1] - start[b]);
+			for (int i = start[b]; i < start[b + 1]; i++) {
+				bucketRules.add(rules[ids[i]]);
+			}
+			buckets[b] = new PackedRuleSet(packedRows, bucketRules);
 		}
-		List<Integer> ruleList = new ArrayList<Integer>();
-		final int length = table.dictionary.size();
-		for (int i = 0; i < length; i++) {
-			ruleList.add(-1);
-		}
-		for (List<Integer> tuple : table.contents) {
-			for (int i = 0; i < length; i++) {
-				ruleList.set(i, tuple.get(i));
-				for (int j = i + 1; j < length; j++) {
-					ruleList.set(j, tuple.get(j));
-					final Rule rule = smallerRuleMap.get(ruleList);
-					if (rule != null) {
-						rule.count++;
+		return buckets;
+	}
+
+	/**
+	 * Counts the uncounted rules of ruleMap by intersecting the table's value bitmaps, with no pass over the table. If
+	 * solution is not null, also sets marginal values. A rule of score s gains s - min(s, maxScore) from each row it covers,
+	 * maxScore being the best solution score on the row. Summed over its rows, that is the sum for t = 1 to s of the number
+	 * of its rows not covered by any solution rule of score at least t.
+	 */
+	private static void updateCountsBitmapIndex (TableInfo table, Map<Rule, Rule> ruleMap, Set<Rule> solution) {
+		final BitmapIndex index = table.bitmapIndex;
+		final CompressedBitmap[] coverage = solution == null ? null : solutionCoverage(index, solution);
+		for (Rule rule : ruleMap.values()) {
+			if (!rule.counted) {
+				if (solution == null) {
+					rule.count = index.count(rule);
+				} else {
+					final CompressedBitmap rows = index.rowsFor(rule);
+					rule.count = rows.cardinality();
+					rule.latestCountedMarginalValue = 0;
+					for (int t = 1; t <= rule.score; t++) {
+						final int covered = t < coverage.length ? rows.andCardinality(coverage[t]) : 0;
+						rule.latestCountedMarginalValue += rule.count - covered;
 					}
-					ruleList.set(j, -1);
 				}
-				ruleList.set(i, -1);
 			}
 		}
 		for (Rule rule : ruleMap.values()) {
-			if (!rule.counted && rule.size() == 2) {
-				rule.counted = true;
+			rule.counted = true;
+			if (solution != null) {
+				rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
+			}
+		}
+	}
+
+	/**
+	 * Entry t of the result (for t = 1 to the highest solution score) has the rows covered by a solution rule of score at
+	 * least t.
+	 */
+	private static CompressedBitmap[] solutionCoverage (BitmapIndex index, Set<Rule> solution) {
+		int maxScore = 0;
+		for (Rule rule : solution) {
+			maxScore = Math.max(maxScore, rule.score);
+		}
+		CompressedBitmap[] scoreRows = new CompressedBitmap[maxScore + 1];
+		for (Rule rule : solution) {
+			if (rule.score > 0) {
+				final CompressedBitmap rows = index.rowsFor(rule);
+				scoreRows[rule.score] = scoreRows[rule.score] == null ? rows : scoreRows[rule.score].or(rows);
 			}
 		}
+		CompressedBitmap[] coverage = new CompressedBitmap[maxScore + 1];
+		CompressedBitmap covered = new CompressedBitmap();
+		for (int t = maxScore; t > 0; t--) {
+			if (scoreRows[t] != null) {
+				covered = covered.or(scoreRows[t]);
+			}
+			coverage[t] = covered;
+		}
+		return coverage;
 	}
 	
+	// More efficient function for updating counts of rules of size 2. In the ends, sets all rules.counted to true.
+	public static void updateCountsSizeTwo (TableInfo table, Map<Rule, Rule> ruleMap) {
+		countSizeTwo(table, ruleMap, null);
+	}
+
 	// More efficient function for updating counts of rules of size 2. In the ends, sets all rules.counted to true.
 	public static void updateCountsAndMarginalValuesSizeTwo (TableInfo table, Map<Rule, Rule> ruleMap, Set<Rule> solution) {
-		Map<List<Integer>, Rule> smallerRuleMap = new HashMap<List<Integer>, Rule>();
+		countSizeTwo(table, ruleMap, new SolutionCoverage(table, solution));
+	}
+
+	public static void updateCountsAndMarginalValuesSizeTwo (TableInfo table, Map<Rule, Rule> ruleMap, SolutionCoverage coverage) {
+		countSizeTwo(table, ruleMap, coverage);
+	}
+
+	/**
+	 * Counts the uncounted rules of size 2 in ruleMap in a parallel pass over the table, looking up each pair of values of
+	 * each row. If coverage is not null, also sets their marginal values. If coverage is null, the table's count cube gives
+	 * the counts of the pairs it covers, and the pass is only made for the others.
+	 */
+	private static void countSizeTwo (final TableInfo table, Map<Rule, Rule> ruleMap, SolutionCoverage coverage) {
+		final int[] rowScore = coverage == null ? null : coverage.rowScore;
+		final RuleArena pairs = new RuleArena();
 		for (Rule rule : ruleMap.values()) {
-			smallerRuleMap.put(rule.values, rule);
 			if (!rule.counted && rule.size() == 2) {
-				rule.count = 0;
-				rule.latestCountedMarginalValue = 0;
+				if (coverage == null && table.countCube != null && table.countCube.covers(rule)) {
+					rule.count += table.countCube.count(rule);
+					rule.counted = true;
+					continue;
+				}
+				pairs.add(rule);
+				if (coverage != null) {
+					rule.count = 0;
+					rule.latestCountedMarginalValue = 0;
+				}
 			}
 		}
-		List<Integer> ruleList = new ArrayList<Integer>();
-		final int length = table.dictionary.size();
-		for (int i = 0; i < length; i++) {
-			ruleList.add(-1);
+		if (pairs.size() == 0) {
+			return;
 		}
-		for (List<Integer> tuple : table.contents) {
-			Integer maxScore = 0;
-			for (Rule r : solution) {
-				if (Rule.isSubRule(r, tuple));
-				maxScore = Math.max(maxScore, r.score);
-			}
-			
-			for (int i = 0; i < length; i++) {
-				ruleList.set(i, tuple.get(i));
-				for (int j = i + 1; j < length; j++) {
-					ruleList.set(j, tuple.get(j));
-					final Rule rule = smallerRuleMap.get(ruleList);
-					if (rule != null && !rule.counted) {
-						rule.count++;
-						rule.latestCountedMarginalValue += rule.score - Math.min(rule.score, maxScore) ;
+		final int length = table.dictionary.size();
+		final int[][] result = new ParallelCounter(pairs.size()) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] tuple = new int[length];
+				final int[] values = new int[length];
+				Arrays.fill(values, -1);
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					final int maxScore = rowScore == null ? 0 : rowScore[row];
+					final int weight = table.weight(row);
+					for (int i = 0; i < length; i++) {
+						values[i] = tuple[i];
+						for (int j = i + 1; j < length; j++) {
+							values[j] = tuple[j];
+							final int id = pairs.find(values);
+							if (id != -1) {
+								final int score = pairs.get(id).score;
+								counts[id] += weight;
+								marginalValues[id] += weight * (score - Math.min(score, maxScore));
+							}
+							values[j] = -1;
+						}
+						values[i] = -1;
 					}
-					ruleList.set(j, -1);
 				}
-				ruleList.set(i, -1);
 			}
-		}
-		for (Rule rule : ruleMap.values()) {
-			if (!rule.counted && rule.size() == 2) {
-				rule.counted = true;
+		}.count(table.numRows());
+		for (int id = 0; id < pairs.size(); id++) {
+			final Rule rule = pairs.get(id);
+			rule.count += result[0][id];
+			rule.counted = true;
+			if (coverage != null) {
+				rule.latestCountedMarginalValue += result[1][id];
 				rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
 			}
 		}
 	}
-		
+
 	/**
 	 * Updates counts and marginal values (for rules with counted set to false.
 	 */
-	public static void updateCountsAndMarginalValues (TableInfo table, Map<Rule, Rule> ruleMap, Integer ruleSizeToCount, 
+	public static void updateCountsAndMarginalValues (TableInfo table, Map<Rule, Rule> ruleMap, Integer ruleSizeToCount,
 			Map<Rule, Set<Rule>> superRules, Set<Rule> solution) {
-		for (Rule rule : ruleMap.values()) {
-			if (!rule.counted) {
-				rule.count = 0;
-				rule.latestCountedMarginalValue = 0;
-			}
-		}
-		for (List<Integer> tuple : table.contents) {
-			Integer maxScore = 0;
-			for (Rule rule : solution) {
-				if (Rule.isSubRule(rule, tuple)) {
-					maxScore = Math.max(maxScore, rule.score);
-				}
-			}
-			Rule tupleRule = new Rule(tuple);
-			int currentSize = 1;
-			Set<Rule> rules = new HashSet<Rule>();
-			Set<Rule> nextRules = tupleRule.findSubRules(currentSize);
-			Set<Rule> nextToNextRules;
-			do {
-				currentSize++;
-				if (currentSize > ruleSizeToCount) {
-					rules.addAll(nextRules);
-					break;
-				}
-				nextToNextRules = new HashSet<Rule>();
-				for (Rule nextRule : nextRules) {
-					final Set<Rule> successors = superRules.get(nextRule);
-					for (Rule successor : successors) {
-						if (Rule.isSubRule(successor, tuple)) {
-							nextToNextRules.add(successor);
-						}
+		updateCountsAndMarginalValues(table, ruleMap, ruleSizeToCount, superRules, new SolutionCoverage(table, solution));
+	}
+
+	public static void updateCountsAndMarginalValues (final TableInfo table, Map<Rule, Rule> ruleMap, Integer ruleSizeToCount,
+			Map<Rule, Set<Rule>> superRules, SolutionCoverage coverage) {
+		final int[] rowScore = coverage.rowScore;
+		final RuleArena arena = CoveringRules.linkedArena(ruleMap, superRules);
+		final int length = table.dictionary.size();
+		final int size = ruleSizeToCount;
+		final int[][] result = new ParallelCounter(arena.size()) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final CoveringRules coveringRules = new CoveringRules(arena, length);
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					final int maxScore = rowScore[row];
+					coveringRules.find(tuple, size, size);
+					final int weight = table.weight(row);
+					for (int i = 0; i < coveringRules.numRules; i++) {
+						final int id = coveringRules.rules[i];
+						final int score = arena.get(id).score;
+						counts[id] += weight;
+						marginalValues[id] += weight * (score - Math.min(score, maxScore));
 					}
 				}
-				nextRules = nextToNextRules;
-				//out.println(nextRules.size());
-			} while (!nextToNextRules.isEmpty());
-			for (Rule r : rules) {
-				final Rule rule = ruleMap.get(r);
-				if (!rule.counted) {
-					rule.count++;
-					rule.latestCountedMarginalValue += rule.score - Math.min(rule.score, maxScore);
-				}
 			}
-		}
-		for (Rule rule : ruleMap.values()) {
+		}.count(table.numRows());
+		for (int id = 0; id < arena.size(); id++) {
+			final Rule rule = arena.get(id);
 			if (!rule.counted) {
+				rule.count = result[0][id];
+				rule.latestCountedMarginalValue = result[1][id];
 				rule.counted = true;
 				rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
 			}
@@ -547,107 +913,110 @@ public class NonStarCountSolvers {
 	 * Hashes rules to be counted according to a single value in an arbitrary column. Uses those to access potential rules coverign each tuple.
 	 */
 	public static void updateCountsAndMarginalValuesSingleHash (TableInfo table, Map<Rule, Rule> ruleMap, Set<Rule> solution) {
-		final Integer length = table.dictionary.size();
-		Map<Integer, Map<Integer, Set<Rule>>> singleHashMap = new HashMap<Integer, Map<Integer, Set<Rule>>>();
-		for (int i = 0; i < length; i++) {
-			singleHashMap.put(i, new HashMap<Integer, Set<Rule>>());
-			for (int j = 0; j < table.dictionary.get(i).size(); j++) {
-				singleHashMap.get(i).put(j, new HashSet<Rule>());
-			}
+		if (table.bitmapIndex != null) {
+			updateCountsBitmapIndex(table, ruleMap, solution);
+			return;
 		}
-		for (Rule rule : ruleMap.values()) {
-			if (!rule.counted) {
-				rule.count = 0;
+		countSingleHash(table, ruleMap, new SolutionCoverage(table, solution));
+	}
+
+	public static void updateCountsAndMarginalValuesSingleHash (TableInfo table, Map<Rule, Rule> ruleMap, SolutionCoverage coverage) {
+		if (table.bitmapIndex != null) {
+			updateCountsBitmapIndex(table, ruleMap, coverage.rules);
+			return;
+		}
+		countSingleHash(table, ruleMap, coverage);
+	}
+
+	/**
+	 * Updates marginal values by actually making a pass through the table.
+	 */
+	public static void countMarginalValues (TableInfo table, List<Rule> rules, Map<Rule, Rule> ruleMap, Set<Rule> solution) {
+		countMarginalValues(table, rules, ruleMap, new SolutionCoverage(table, solution));
+	}
+
+	public static void countMarginalValues (final TableInfo table, List<Rule> rules, Map<Rule, Rule> ruleMap, SolutionCoverage coverage) {
+		final Set<Rule> solution = coverage.rules;
+		final int[] rowScore = coverage.rowScore;
+		for (Rule rule : rules) {
+			if (!solution.contains(rule)) {
 				rule.latestCountedMarginalValue = 0;
-				int ruleSize = rule.size();
-				for (int key : rule.valueMap.keySet()) {
-					if (Math.random() < 1.0/ruleSize) {
-						singleHashMap.get(key).get(rule.get(key)).add(rule);
-						break;
-					} else {
-						ruleSize--;
-					}
-				}
 			}
 		}
-		
-		for (List<Integer> tuple : table.contents) {
-			int maxScore = 0;
-			for (Rule rule : solution) {
-				if (Rule.isSubRule(rule, tuple)) {
-					maxScore = Math.max(maxScore, rule.score);
-				}
+
+		// The sub-rules of each tuple that are in ruleMap and reachable from its single value rules through rules in ruleMap are
+		// found level by level, extending each rule found by one of the tuple's values in place. A rule reachable from several
+		// rules of the level below is only taken once, thanks to the row it was last reached in.
+		final int length = table.dictionary.size();
+		final RuleArena arena = new RuleArena();
+		for (Rule rule : ruleMap.values()) {
+			arena.add(rule);
+		}
+		final boolean[] inSolution = new boolean[arena.size()];
+		for (Rule rule : solution) {
+			final int id = arena.find(rule.key());
+			if (id != -1) {
+				inSolution[id] = true;
 			}
-			
-			for (int i = 0; i < length; i++) {
-				final int val = tuple.get(i);
-				for (Rule rule : singleHashMap.get(i).get(val)) {
-					if (Rule.isSubRule(rule, tuple)) {
-						rule.count++;
-						rule.latestCountedMarginalValue += rule.score - Math.min(rule.score, maxScore);
+		}
+
+		final int[] marginalValues = new ParallelCounter(arena.size(), false, true) {
+			@Override
+			protected void countRows (int from, int to, int[] counts, int[] marginalValues) {
+				final int[] lastRow = new int[arena.size()];
+				Arrays.fill(lastRow, -1);
+				int[] level = new int[arena.size()];
+				int[] nextLevel = new int[arena.size()];
+				final int[] values = new int[length];
+				final SuperRuleEnumerator superRules = new SuperRuleEnumerator(table);
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					table.fillRow(row, tuple);
+					final int solScore = rowScore[row];
+					final int weight = table.weight(row);
+					int levelSize = 0;
+					Arrays.fill(values, -1);
+					for (int col = 0; col < length; col++) {
+						values[col] = tuple[col];
+						final int id = arena.find(values);
+						values[col] = -1;
+						if (id != -1 && lastRow[id] != row) {
+							lastRow[id] = row;
+							level[levelSize++] = id;
+						}
+					}
+					while (levelSize > 0) {
+						int nextLevelSize = 0;
+						for (int i = 0; i < levelSize; i++) {
+							final Rule r = arena.get(level[i]);
+							if (!inSolution[level[i]]) {
+								marginalValues[level[i]] += weight * (r.score - Math.min(r.score, solScore));
+							}
+							r.key().fillValues(values);
+							superRules.reset(values, tuple);
+							while (superRules.next()) {
+								final int id = arena.find(superRules.values);
+								if (id != -1 && lastRow[id] != row) {
+									lastRow[id] = row;
+									nextLevel[nextLevelSize++] = id;
+								}
+							}
+						}
+						final int[] swap = level;
+						level = nextLevel;
+						nextLevel = swap;
+						levelSize = nextLevelSize;
 					}
 				}
 			}
+		}.count(table.numRows())[1];
+		for (int id = 0; id < arena.size(); id++) {
+			if (!inSolution[id]) {
+				arena.get(id).latestCountedMarginalValue += marginalValues[id];
+			}
 		}
-		for (Rule rule : ruleMap.values()) {
-			rule.counted = true;
-			rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
-		}
-	}
-	
-	/**
-	 * Updates marginal values by actually making a pass through the table.
-	 */
-	public static void countMarginalValues (TableInfo table, List<Rule> rules, Map<Rule, Rule> ruleMap, Set<Rule> solution) {
-		for (Rule rule : rules) {
-			if (!solution.contains(rule)) {
-				rule.latestCountedMarginalValue = 0;
-			}
-		}
-		
-		List<Rule> solutionList = new ArrayList<Rule>(solution);
-		Collections.sort(solutionList, new Comparator<Rule>() {
-			@Override
-			public int compare(Rule arg0, Rule arg1) {
-				return -arg0.score.compareTo(arg1.score);
-			}
-		});
-		
-		for (List<Integer> tuple : table.contents) {
-			Rule tupleRule = new Rule(tuple);
-			int solScore = 0;
-			for (Rule sol : solutionList) {
-				if (Rule.isSubRule(sol, tuple)){
-					solScore = sol.score;
-					break;
-				}
-			}	
-			
-			Set<Rule> allRules = new HashSet<Rule>();
-			Set<Rule> nextRules = tupleRule.findSubRules(1);
-			Set<Rule> nextToNextRules;
-			do {
-				nextToNextRules = new HashSet<Rule>();
-				for (Rule nextRule : nextRules) {
-					Set<Rule> successors = Rule.findSubSuperRules(nextRule, tupleRule, nextRule.size() + 1);
-					for (Rule successor : successors) {
-						if (ruleMap.containsKey(successor)) {
-							nextToNextRules.add(successor);
-						}
-					}
-				}
-				allRules.addAll(nextRules);
-				nextRules = nextToNextRules;
-			} while (!nextToNextRules.isEmpty());
-			for (Rule rule : allRules) {
-				Rule r = ruleMap.get(rule);
-				if (!solution.contains(rule)){
-					r.latestCountedMarginalValue += r.score - Math.min(r.score, solScore);
-				}
-			}
-		}
-		
-		for (Rule rule : rules) {
+
+		for (Rule rule : rules) {
 			rule.minMarginalValue = rule.maxMarginalValue = rule.latestCountedMarginalValue;
 		}
 	}
@@ -671,7 +1040,7 @@ public class NonStarCountSolvers {
 					r.maxMarginalValue -= coverScore * intersectionCount;
 					r.minMarginalValue -= coverScore * intersectionCount;
 				} else {
-					r.minMarginalValue -= coverScore * countUpperBound(Rule.ruleUnion(r, sol), ruleMap);	
+					r.minMarginalValue -= coverScore * countUpperBound(table, Rule.ruleUnion(r, sol), ruleMap);	
 				}
 			}
 			bestMarginalValue = Math.max(bestMarginalValue, r.minMarginalValue);
@@ -690,10 +1059,13 @@ public class NonStarCountSolvers {
 		for (Rule r : solutionList) {
 			marginalCounts.put(r, 0);
 		}
-		for (List<Integer> tuple : table.contents) {
+		final int numRows = table.numRows();
+		final int[] tuple = new int[table.dictionary.size()];
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
 			for (Rule sol : solutionList) {
 				if (Rule.isSubRule(sol, tuple)){
-					marginalCounts.put(sol, marginalCounts.get(sol) + 1);
+					marginalCounts.put(sol, marginalCounts.get(sol) + table.weight(row));
 					break;
 				}
 			}
@@ -709,7 +1081,7 @@ public class NonStarCountSolvers {
 		final Integer length = table.dictionary.size();
 		Rule bestRule = null;
 		Integer bestRuleTotalScore = -1;
-		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.contents.size(), true, scorer);
+		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.totalWeight(), true, scorer);
 		superRules.put(emptyRule, new HashSet<Rule>());
 		
 		List<List<Integer>> counts = getSingleCounts(table);
@@ -729,41 +1101,48 @@ public class NonStarCountSolvers {
 			}
 		}
 		
-		Set<Rule> latestSuperRules = ruleMap.keySet();
+		// The first level is the single value rules. The size 2 super-rules of the empty rule are also theirs.
+		List<Rule> latestSuperRules = new ArrayList<Rule>();
+		RuleArena arena = new RuleArena();
+		for (Rule rule : ruleMap.values()) {
+			arena.add(rule);
+			if (rule.size() == 1) {
+				latestSuperRules.add(rule);
+			}
+		}
 		ruleMap.put(emptyRule, emptyRule);
 		
-		for (int currentSize = 2; currentSize < 7; currentSize++) {
+		for (int currentSize = 2; currentSize <= ruleSizeLimit(table); currentSize++) {
 			out.println(bestRuleTotalScore);
-			Set<Rule> nextSuperRules = new HashSet<Rule>();
+			RuleArena candidates = new RuleArena();
 			for (Rule r : latestSuperRules) {
-				if ((ruleMap.get(r).count * maxRuleScore >= bestRuleTotalScore)) {
-					nextSuperRules.addAll(r.findSuperRules(table, currentSize));					
+				if ((r.count * maxRuleScore >= bestRuleTotalScore)) {
+					arena.addSuperRules(table, r, candidates);
 				}
 			}
-			out.println("Generated " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			Iterator<Rule> ruleIter = nextSuperRules.iterator();
-			while (ruleIter.hasNext()) {
-				Rule rule = ruleIter.next();
-				Integer maxCount = countUpperBound(rule, ruleMap);
-				if (maxCount * maxRuleScore < bestRuleTotalScore) {
-					ruleIter.remove();
+			out.println("Generated " + candidates.size() + " candidate rules of size " + currentSize);
+			List<Rule> nextSuperRules = new ArrayList<Rule>();
+			for (int id = 0; id < candidates.size(); id++) {
+				Rule rule = candidates.get(id);
+				Integer maxCount = countUpperBound(table, rule, arena);
+				if (maxCount * maxRuleScore >= bestRuleTotalScore) {
+					nextSuperRules.add(rule);
 				}
 			}
 			if (nextSuperRules.isEmpty()) {
 				break;
 			}
 			out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			for (Rule rule : nextSuperRules) {
-				Rule r = new Rule(table, rule.valueMap, rule.length(), 0, false, scorer); // Unnecessary doubling of memory?
-				Set<Rule> subRules = r.findSubRules(currentSize - 1);
-				for (Rule subRule : subRules) {
-					if (ruleMap.containsKey(subRule)) {
-						superRules.get(subRule).add(r);
-						// Breaking to avoid multiple subrules linking ot the superRule, as it is wasteful to visit it repeatedly when traversing 
-						break;
-					}
+			for (Rule r : nextSuperRules) {
+				// The candidate itself becomes the lattice's instance of the rule, instead of a copy of it.
+				r.setScore(table, scorer);
+				for (Rule subRule : arena.findSubRules(r, currentSize - 1)) {
+					superRules.get(subRule).add(r);
+					// Breaking to avoid multiple subrules linking ot the superRule, as it is wasteful to visit it repeatedly when traversing 
+					break;
 				}
 				ruleMap.put(r, r);
+				arena.add(r);
 				superRules.put(r, new HashSet<Rule>());
 			}
 			long initial = System.currentTimeMillis();
@@ -779,8 +1158,7 @@ public class NonStarCountSolvers {
 			out.println(System.currentTimeMillis() - initial);
 			
 			latestSuperRules = nextSuperRules;
-			for (Rule r : nextSuperRules) {
-				Rule rule = ruleMap.get(r);
+			for (Rule rule : nextSuperRules) {
 				rule.minMarginalValue = rule.count * rule.score;
 				rule.maxMarginalValue = rule.count * rule.score;
 				rule.latestCountedMarginalValue = rule.count * rule.score;
@@ -794,112 +1172,493 @@ public class NonStarCountSolvers {
 		return bestRule;
 	}
 	
+	/**
+	 * Same bound as subRuleMarginalValueUpperBoundLimited, for a candidate of the lattice that has not been counted yet: the
+	 * least subRuleBound of its immediate sub-rules (pruned ones included), which is memoized so that the sub-lattice shared by
+	 * sibling candidates is only walked once. Also sets the candidate's own subRuleBound, for its super-rules. Sub-rules that
+	 * are not counted yet (the levels below it in the same pass, see levelsPerPass) do not count, until refreshSubRuleBounds.
+	 */
+	static int candidateMarginalValueUpperBound (CandidateTable lattice, int id, int maxRuleScore) {
+		final int length = lattice.length();
+		final long[] key = new long[lattice.words()];
+		int maxValue = Integer.MAX_VALUE;
+		lattice.copyKey(id, key, 0);
+		for (int col = 0; col < length; col++) {
+			final int val = lattice.get(id, col);
+			if (val == -1) {
+				continue;
+			}
+			lattice.setValue(key, 0, col, -1);
+			final int sub = lattice.findAny(key, 0);
+			lattice.setValue(key, 0, col, val);
+			if (sub >= 0) {
+				maxValue = Math.min(maxValue, lattice.subRuleBound[sub]);
+			}
+		}
+		lattice.subRuleBound[id] = lattice.counted[id] ? Math.min(maxValue, ownBound(lattice, id, maxRuleScore)) : maxValue;
+		return maxValue;
+	}
+
+	private static int ownBound (CandidateTable lattice, int id, int maxRuleScore) {
+		return lattice.count[id] * (maxRuleScore - lattice.score[id]) + lattice.maxMarginalValue[id];
+	}
+
+	/**
+	 * Recomputes the subRuleBound of candidates from the lattice's end, after a pass counted candidates from onwards. Earlier
+	 * candidates are left alone, since none of their sub-rules changed. Ids increase with size, so sub-rules are done first.
+	 */
+	static void refreshSubRuleBounds (CandidateTable lattice, int from, int maxRuleScore) {
+		for (int id = from; id < lattice.size(); id++) {
+			candidateMarginalValueUpperBound(lattice, id, maxRuleScore);
+		}
+	}
+
+	/**
+	 * Counts the candidates from to to - 1 of the lattice (pruned and already counted ones are skipped), and sets their
+	 * marginal values given the solution's coverage. Uses tidLists if not null, else the table's bitmap index if it has one,
+	 * else a pass over the table. Before that, if the solution is empty and the table has a count cube, the candidates the
+	 * cube covers are counted from it.
+	 */
+	static void countCandidates (final TableInfo table, final CandidateTable lattice, int from, int to,
+			final SolutionCoverage coverage, TidLists tidLists) {
+		if (tidLists != null) {
+			// Ids increase with size, so every parent is counted before its children.
+			for (int id = from; id < to; id++) {
+				if (!lattice.pruned[id] && !lattice.counted[id]) {
+					tidLists.count(lattice, id);
+				}
+			}
+			return;
+		}
+		if (table.countCube != null && coverage.rules.isEmpty()) {
+			// No row is covered yet, so the marginal value of a candidate is its count times its score.
+			final int[] values = new int[lattice.length()];
+			int uncounted = 0;
+			for (int id = from; id < to; id++) {
+				if (lattice.pruned[id] || lattice.counted[id]) {
+					continue;
+				}
+				lattice.fillValues(id, values);
+				if (table.countCube.covers(values)) {
+					lattice.count[id] = table.countCube.count(values);
+					lattice.minMarginalValue[id] = lattice.maxMarginalValue[id] = lattice.count[id] * lattice.score[id];
+					lattice.counted[id] = true;
+				} else {
+					uncounted++;
+				}
+			}
+			if (uncounted == 0) {
+				return;
+			}
+		}
+		int[] counts = new int[to - from];
+		int[] marginalValues = new int[to - from];
+		if (table.bitmapIndex != null) {
+			final BitmapIndex index = table.bitmapIndex;
+			final CompressedBitmap[] coveredRows = solutionCoverage(index, coverage.rules);
+			final int[] values = new int[lattice.length()];
+			for (int id = from; id < to; id++) {
+				if (lattice.pruned[id] || lattice.counted[id]) {
+					continue;
+				}
+				lattice.fillValues(id, values);
+				final CompressedBitmap rows = index.rowsFor(values);
+				final int count = rows.cardinality();
+				counts[id - from] = count;
+				for (int t = 1; t <= lattice.score[id]; t++) {
+					marginalValues[id - from] += count - (t < coveredRows.length ? rows.andCardinality(coveredRows[t]) : 0);
+				}
+			}
+		} else {
+			final CandidateBuckets buckets = new CandidateBuckets(lattice, from, to, true);
+			final int[][] result = new ParallelCounter(to - from) {
+				@Override
+				protected void countRows (int rowFrom, int rowTo, int[] counts, int[] marginalValues) {
+					countCandidateRows(table, lattice, buckets, coverage, rowFrom, rowTo, counts, marginalValues);
+				}
+			}.count(table.numRows());
+			counts = result[0];
+			marginalValues = result[1];
+		}
+		for (int id = from; id < to; id++) {
+			if (!lattice.pruned[id] && !lattice.counted[id]) {
+				lattice.count[id] = counts[id - from];
+				lattice.minMarginalValue[id] = lattice.maxMarginalValue[id] = marginalValues[id - from];
+				lattice.counted[id] = true;
+			}
+		}
+	}
+
+	/**
+	 * Adds the coverage of rows rowFrom to rowTo - 1 to counts and marginalValues (indexed by id - buckets.from). Candidates
+	 * are only looked at for rows having their bucket value, and matched by comparing packed values.
+	 */
+	static void countCandidateRows (TableInfo table, CandidateTable lattice, CandidateBuckets buckets, SolutionCoverage coverage,
+			int rowFrom, int rowTo, int[] counts, int[] marginalValues) {
+		final int length = lattice.length();
+		final int[] tuple = new int[length];
+		final long[] rowKey = new long[lattice.words()];
+		for (int row = rowFrom; row < rowTo; row++) {
+			table.fillRow(row, tuple);
+			final int maxScore = coverage.rowScore[row];
+			lattice.encode(tuple, rowKey, 0);
+			final int weight = table.weight(row);
+			for (int col = 0; col < length; col++) {
+				final int bucket = buckets.bucket(col, tuple[col]);
+				for (int i = buckets.start[bucket]; i < buckets.start[bucket + 1]; i++) {
+					final int id = buckets.ids[i];
+					if (lattice.matches(id, rowKey, 0)) {
+						final int score = lattice.score[id];
+						counts[id - buckets.from] += weight;
+						marginalValues[id - buckets.from] += weight * (score - Math.min(score, maxScore));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Candidates from to to - 1 of a lattice, grouped by one of their non-star (column, value) pairs, CSR-style: the ids in
+	 * bucket b are ids[start[b]] to ids[start[b + 1] - 1]. Each candidate is put under its value that is least frequent
+	 * among the lattice's single value rules, so that it is checked against as few rows as possible.
+	 */
+	static class CandidateBuckets {
+		final int from;
+		final int[] columnOffset; // Bucket of (col, val) is columnOffset[col] + val.
+		final int[] start;
+		final int[] ids;
+
+		/**
+		 * Buckets of the candidates from to to - 1 that are not pruned, and not counted either if uncountedOnly is set.
+		 */
+		CandidateBuckets (CandidateTable lattice, int from, int to, boolean uncountedOnly) {
+			this.from = from;
+			final int length = lattice.length();
+			columnOffset = new int[length + 1];
+			for (int col = 0; col < length; col++) {
+				columnOffset[col + 1] = columnOffset[col] + lattice.cardinality(col);
+			}
+			final int numBuckets = columnOffset[length];
+			final int[] valueCounts = new int[numBuckets];
+			final long[] key = new long[lattice.words()];
+			for (int col = 0; col < length; col++) {
+				lattice.setValue(key, 0, col, -1);
+			}
+			for (int col = 0; col < length; col++) {
+				for (int val = 0; val < lattice.cardinality(col); val++) {
+					lattice.setValue(key, 0, col, val);
+					final int single = lattice.find(key, 0);
+					valueCounts[columnOffset[col] + val] = single >= 0 && lattice.counted[single] ? lattice.count[single] : Integer.MAX_VALUE;
+				}
+				lattice.setValue(key, 0, col, -1);
+			}
+			final int[] candidateBucket = new int[to - from];
+			start = new int[numBuckets + 1];
+			for (int id = from; id < to; id++) {
+				if (lattice.pruned[id] || (uncountedOnly && lattice.counted[id])) {
+					candidateBucket[id - from] = -1;
+					continue;
+				}
+				int bucket = -1;
+				for (int col = 0; col < length; col++) {
+					final int val = lattice.get(id, col);
+					if (val != -1 && (bucket == -1 || valueCounts[columnOffset[col] + val] < valueCounts[bucket])) {
+						bucket = columnOffset[col] + val;
+					}
+				}
+				candidateBucket[id - from] = bucket;
+				if (bucket >= 0) {
+					start[bucket + 1]++;
+				}
+			}
+			for (int b = 0; b < numBuckets; b++) {
+				start[b + 1] += start[b];
+			}
+			ids = new int[start[numBuckets]];
+			final int[] next = Arrays.copyOf(start, numBuckets);
+			for (int id = from; id < to; id++) {
+				final int bucket = candidateBucket[id - from];
+				if (bucket >= 0) {
+					ids[next[bucket]++] = id;
+				}
+			}
+		}
+
+		int bucket (int col, int val) {
+			return columnOffset[col] + val;
+		}
+	}
+
 	/**
 	 * Finds rule that adds the most marginal value, given the chosen solution rules. 
-	 * This function starts afresh, not accessing the old values of ruleMap or superRules.
+	 * This function starts afresh, not accessing the old values of ruleMap or superRules. The candidate lattice is held in
+	 * a CandidateTable, and Rule objects are only built to score candidates and for the returned rule.
 	 */
 	public static Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer, 
 			Integer requiredColumn) throws IOException {
-		final Integer length = table.dictionary.size();
-		List<List<Rule>> singleRules = getSingleRulesWithMarginalValues (table, solution, scorer);
-		Map<Rule, Set<Rule>> superRules = new HashMap<Rule, Set<Rule>>();
-		Map<Rule, Rule> ruleMap = new HashMap<Rule, Rule>();
-		Map<List<Integer>, Rule> ruleListMap = new HashMap<List<Integer>, Rule>();
+		return getBestMarginalRule(table, maxRuleScore, solution, scorer, requiredColumn, false);
+	}
+
+	/**
+	 * If vertical is true, lists the covering rows of every single value first, and counts each candidate by intersecting
+	 * the rows of its parent with those of the value it adds (see TidLists), with no further pass over the table.
+	 */
+	public static Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, Set<Rule> solution, Scorer scorer,
+			Integer requiredColumn, boolean vertical) throws IOException {
+		return getBestMarginalRule(table, maxRuleScore, new SolutionCoverage(table, solution), scorer, requiredColumn, vertical,
+				null, null, null);
+	}
+
+	/**
+	 * The solution is given with its coverage, which every pass reads. If cache is not null, it holds candidates counted by
+	 * earlier calls, with their counts and their marginal values given the solution (see IncrementalGreedySolver).
+	 * Candidates found in it are not counted again, and the ones counted here are added to it. The candidates explored and
+	 * the rule returned are the same as without it. The candidates generated are added to stats if it is not null.
+	 * If budget is not null, it is checked before each lattice level, and null is returned once it is expired.
+	 */
+	static Rule getBestMarginalRule (TableInfo table, Integer maxRuleScore, SolutionCoverage coverage, Scorer scorer,
+			Integer requiredColumn, boolean vertical, CandidateTable cache, SearchBudget budget, SearchStats stats)
+			throws IOException {
+		final int length = table.dictionary.size();
+		List<List<Rule>> singleRules = null;
+		if (cache == null || cache.size() == 0) {
+			singleRules = getSingleRulesWithMarginalValues (table, coverage, scorer);
+			if (cache != null) {
+				final long[] singleKey = new long[cache.words()];
+				final int[] singleValues = new int[length];
+				Arrays.fill(singleValues, -1);
+				for (int col = 0; col < length; col++) {
+					for (int val = 0; val < singleRules.get(col).size(); val++) {
+						final Rule rule = singleRules.get(col).get(val);
+						singleValues[col] = val;
+						cache.encode(singleValues, singleKey, 0);
+						final int id = cache.add(singleKey, 0);
+						cache.count[id] = rule.count;
+						cache.score[id] = rule.score;
+						cache.minMarginalValue[id] = rule.minMarginalValue;
+						cache.maxMarginalValue[id] = rule.maxMarginalValue;
+						cache.counted[id] = true;
+					}
+					singleValues[col] = -1;
+				}
+			}
+		}
+		final CandidateTable lattice = new CandidateTable(table);
+		final TidLists tidLists = vertical ? new TidLists(table, coverage) : null;
+		final long[] key = new long[lattice.words()];
+		final int[] values = new int[length];
+		Arrays.fill(values, -1);
 		Rule bestRule = null;
-		Integer bestMarginalRuleValue = -1;
+		int bestId = -1;
+		int bestMarginalRuleValue = -1;
 		
-		if (requiredColumn == -1) {
-			for (int col = 0; col < singleRules.size(); col++) {
-				final List<Rule> colRules = singleRules.get(col);
-				for (int val = 0; val < colRules.size(); val++) {
-					Rule rule = colRules.get(val);
-					ruleMap.put(rule, rule);
-					ruleListMap.put(rule.values, rule);
-					superRules.put(rule, new HashSet<Rule>());
-					if (rule.minMarginalValue > bestMarginalRuleValue) {
-						bestMarginalRuleValue = rule.minMarginalValue;
-						bestRule = rule;
-					}
+		for (int col = 0; col < length; col++) {
+			if (requiredColumn != -1 && col != requiredColumn) {
+				continue;
+			}
+			for (int val = 0; val < lattice.cardinality(col); val++) {
+				values[col] = val;
+				lattice.encode(values, key, 0);
+				final int id = lattice.add(key, 0);
+				if (singleRules != null) {
+					final Rule rule = singleRules.get(col).get(val);
+					lattice.count[id] = rule.count;
+					lattice.score[id] = rule.score;
+					lattice.minMarginalValue[id] = rule.minMarginalValue;
+					lattice.maxMarginalValue[id] = rule.maxMarginalValue;
+					lattice.counted[id] = true;
+				} else {
+					copyCounted(cache, cache.find(key, 0), lattice, id);
 				}
-			}			
-		} else {
-			final List<Rule> colRules = singleRules.get(requiredColumn);
-			for (int val = 0; val < colRules.size(); val++) {
-				Rule rule = colRules.get(val);
-				ruleMap.put(rule, rule);
-				ruleListMap.put(rule.values, rule);
-				superRules.put(rule, new HashSet<Rule>());
-				if (rule.minMarginalValue > bestMarginalRuleValue) {
-					bestMarginalRuleValue = rule.minMarginalValue;
-					bestRule = rule;
+				lattice.subRuleBound[id] = ownBound(lattice, id, maxRuleScore);
+				if (lattice.minMarginalValue[id] > bestMarginalRuleValue) {
+					bestMarginalRuleValue = lattice.minMarginalValue[id];
+					bestRule = singleRules != null ? singleRules.get(col).get(val) : lattice.toRule(id);
 				}
 			}
+			values[col] = -1;
 		}
-		Set<Rule> latestSuperRules = ruleMap.keySet();
+		int levelFrom = 0;
+		int levelTo = lattice.size();
 		
-		for (int currentSize = 2; currentSize < 7; currentSize++) {
-			//out.println(bestMarginalRuleValue);
-			Set<Rule> nextSuperRules = new HashSet<Rule>();
-			for (Rule r : latestSuperRules) {
-				//out.println(r.toString());
-				Rule rule = ruleMap.get(r);
-				if (rule.maxMarginalValue + rule.count * (maxRuleScore - rule.score) >= bestMarginalRuleValue) {
-					nextSuperRules.addAll(rule.findSuperRules(table, currentSize));					
+		// Each pass over the table counts levelsPerPass levels. Levels after the first of a pass are generated from candidates
+		// that are not counted yet, and pruned with the bounds of their counted sub-rules and the best value before the pass.
+		int currentSize = 2;
+		while (currentSize <= ruleSizeLimit(table)) {
+			final int passFrom = lattice.size();
+			final int passSize = currentSize;
+			boolean exhausted = false;
+			for (; currentSize <= ruleSizeLimit(table) && currentSize < passSize + levelsPerPass; currentSize++) {
+				if (budget != null && budget.expired()) {
+					return null;
+				}
+				if (!levelFits(lattice, levelFrom, levelTo, currentSize, maxRuleScore, bestMarginalRuleValue)) {
+					if (stats != null) {
+						stats.depthLimited = true;
+					}
+					exhausted = true;
+					break;
+				}
+				final int candidatesFrom = lattice.size();
+				for (int id = levelFrom; id < levelTo; id++) {
+					if (lattice.pruned[id] || (lattice.counted[id]
+							&& lattice.maxMarginalValue[id] + lattice.count[id] * (maxRuleScore - lattice.score[id]) < bestMarginalRuleValue)) {
+						continue;
+					}
+					lattice.copyKey(id, key, 0);
+					for (int col = 0; col < length; col++) {
+						if (lattice.get(id, col) != -1) {
+							continue;
+						}
+						for (int val = 0; val < lattice.cardinality(col); val++) {
+							lattice.setValue(key, 0, col, val);
+							lattice.add(key, 0);
+						}
+						lattice.setValue(key, 0, col, -1);
+					}
+				}
+				final int candidatesTo = lattice.size();
+				
+				if (pruneLevel(table, lattice, candidatesFrom, candidatesTo, maxRuleScore, bestMarginalRuleValue, scorer, cache) == 0) {
+					exhausted = true;
+					break;
+				}
+				lattice.linkLevel(candidatesFrom, candidatesTo);
+				levelFrom = candidatesFrom;
+				levelTo = candidatesTo;
+			}
+			if (levelTo > passFrom) {
+				countCandidates(table, lattice, passFrom, levelTo, coverage, tidLists);
+				refreshSubRuleBounds(lattice, passFrom, maxRuleScore);
+				if (cache != null) {
+					for (int id = passFrom; id < levelTo; id++) {
+						if (!lattice.pruned[id]) {
+							final int cached = cache.add(lattice.keys, id * lattice.words());
+							if (cached >= 0) {
+								copyCounted(lattice, id, cache, cached);
+							}
+						}
+					}
 				}
 			}
 			
-			//out.println("Generated " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			Iterator<Rule> ruleIter = nextSuperRules.iterator();
-			while (ruleIter.hasNext()) {
-				Rule rule = ruleIter.next();
-				rule.setScore(table, scorer);
-				//final Integer countUpperBound = countUpperBound(rule, ruleMap);
-				//setMarginalValueUpperBound(rule, countUpperBound, ruleMap);
-				//final Integer upperBound = rule.maxMarginalValue + (maxRuleScore - rule.score) * countUpperBound;
-				final Integer upperBound = subRuleMarginalValueUpperBoundLimited(rule, ruleListMap, ruleMap, superRules, maxRuleScore, bestMarginalRuleValue);
-				if (upperBound < bestMarginalRuleValue) { 
-					ruleIter.remove();
+			for (int id = passFrom; id < levelTo; id++) {
+				if (!lattice.pruned[id] && lattice.minMarginalValue[id] > bestMarginalRuleValue) {
+					bestMarginalRuleValue = lattice.minMarginalValue[id];
+					bestId = id;
 				}
 			}
-			if (nextSuperRules.isEmpty()) {
+			if (exhausted) {
 				break;
 			}
-			//out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			for (Rule rule : nextSuperRules) {
-				Rule r = new Rule(table, rule.valueMap, rule.length(), 0, false, scorer); // Unnecessary doubling of memory?
-				r.maxMarginalValue = rule.maxMarginalValue;
-				Set<Rule> subRules = r.findSubRules(currentSize - 1);
-				for (Rule subRule : subRules) {
-					if (ruleMap.containsKey(subRule)) {
-						superRules.get(subRule).add(r);
-						break;
-					}
+		}	
+		
+		if (stats != null) {
+			stats.candidatesGenerated += lattice.size();
+		}
+		return bestId >= 0 ? lattice.toRule(bestId) : bestRule;
+	}
+	
+	/**
+	 * Largest rule size the solvers look at on table: maxRuleSize, or the number of columns if that is smaller.
+	 */
+	public static int ruleSizeLimit (TableInfo table) {
+		return Math.min(maxRuleSize, table.dictionary.size());
+	}
+
+	/**
+	 * Whether the level of rules of the given size, generated from the candidates from to to - 1 of the lattice, is estimated
+	 * to fit in maxLevelHeapFraction of the heap left. Each candidate that will be extended adds one candidate per value of
+	 * each of its star columns, and a candidate of the level is generated from about size of them.
+	 */
+	private static boolean levelFits (CandidateTable lattice, int from, int to, int size, int maxRuleScore,
+			int bestMarginalRuleValue) {
+		int totalValues = 0;
+		for (int col = 0; col < lattice.length(); col++) {
+			totalValues += lattice.cardinality(col);
+		}
+		long generated = 0;
+		for (int id = from; id < to; id++) {
+			if (lattice.pruned[id] || (lattice.counted[id]
+					&& lattice.maxMarginalValue[id] + lattice.count[id] * (maxRuleScore - lattice.score[id]) < bestMarginalRuleValue)) {
+				continue;
+			}
+			int starValues = totalValues;
+			for (int col = 0; col < lattice.length(); col++) {
+				if (lattice.get(id, col) != -1) {
+					starValues -= lattice.cardinality(col);
 				}
-				ruleMap.put(r, r);
-				ruleListMap.put(r.values, r);
-				superRules.put(r, new HashSet<Rule>());
 			}
-			//long initial = System.currentTimeMillis();
-			if (currentSize == 2) { // Update marginal counts here and below.
-				updateCountsAndMarginalValuesSizeTwo (table, ruleMap, solution);
-			} else {
-				updateCountsAndMarginalValuesSingleHash (table, ruleMap, solution);
+			generated += starValues;
+		}
+		final Runtime runtime = Runtime.getRuntime();
+		final long heapLeft = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return generated / size * lattice.bytesPerCandidate() <= maxLevelHeapFraction * heapLeft;
+	}
+
+	/**
+	 * Scores the new level of candidates from to to - 1 of the lattice (or copies them from cache, if they are in it), prunes
+	 * the ones whose bound is below bestMarginalRuleValue, and sets the parent of the others. Returns the number not pruned.
+	 * Each candidate only reads the earlier levels, which are not written here, and writes its own entries, so the level is
+	 * cut into ranges done in parallel (unless parallelScoring is false), with the same result as in order.
+	 */
+	private static int pruneLevel (final TableInfo table, final CandidateTable lattice, final int from, int to,
+			final int maxRuleScore, final int bestMarginalRuleValue, final Scorer scorer, final CandidateTable cache) {
+		final int length = lattice.length();
+		new ParallelRanges() {
+			@Override
+			protected void runRange (int rangeFrom, int rangeTo) {
+				final long[] key = new long[lattice.words()];
+				final int[] values = new int[length];
+				for (int id = from + rangeFrom; id < from + rangeTo; id++) {
+					final int cached = cache == null ? -1 : cache.find(lattice.keys, id * lattice.words());
+					if (cached >= 0) {
+						copyCounted(cache, cached, lattice, id);
+					} else {
+						lattice.fillValues(id, values);
+						lattice.score[id] = new Rule(table, toValueList(values), scorer).score;
+					}
+					if (candidateMarginalValueUpperBound(lattice, id, maxRuleScore) < bestMarginalRuleValue) {
+						lattice.pruned[id] = true;
+						continue;
+					}
+					lattice.copyKey(id, key, 0);
+					for (int col = 0; col < length; col++) {
+						final int val = lattice.get(id, col);
+						if (val == -1) {
+							continue;
+						}
+						lattice.setValue(key, 0, col, -1);
+						final int sub = lattice.find(key, 0);
+						lattice.setValue(key, 0, col, val);
+						if (sub >= 0) {
+							lattice.parent[id] = sub;
+							break;
+						}
+					}
+				}
 			}
-			//out.println(System.currentTimeMillis() - initial);
-			
-			latestSuperRules = nextSuperRules;
-			for (Rule r : nextSuperRules) {
-				Rule rule = ruleMap.get(r);
-				if (rule.minMarginalValue > bestMarginalRuleValue) {
-					bestMarginalRuleValue = rule.minMarginalValue;
-					bestRule = rule;
-				} 
+		}.run(to - from, parallelScoring ? minCandidatesPerRange : Integer.MAX_VALUE);
+		int numKept = 0;
+		for (int id = from; id < to; id++) {
+			if (!lattice.pruned[id]) {
+				numKept++;
 			}
-		}	
-		
-		return bestRule;
+		}
+		return numKept;
 	}
-	
+
+	/**
+	 * Copies the count, score and marginal values of candidate id of one table to candidate toId of another.
+	 */
+	private static void copyCounted (CandidateTable from, int id, CandidateTable to, int toId) {
+		to.count[toId] = from.count[id];
+		to.score[toId] = from.score[id];
+		to.minMarginalValue[toId] = from.minMarginalValue[id];
+		to.maxMarginalValue[toId] = from.maxMarginalValue[id];
+		to.counted[toId] = true;
+	}
+
 	/**
 	 * Finds rule that adds the most marginal value, given the chosen solution rules. 
 	 * This function starts afresh, not accessing the old values of ruleMap or superRules.
@@ -910,7 +1669,7 @@ public class NonStarCountSolvers {
 		List<List<Rule>> singleRules = getSingleRulesWithMarginalValues (table, new HashSet<Rule>(), scorer);
 		Map<Rule, Set<Rule>> superRules = new HashMap<Rule, Set<Rule>>();
 		Map<Rule, Rule> ruleMap = new HashMap<Rule, Rule>();
-		Map<List<Integer>, Rule> ruleListMap = new HashMap<List<Integer>, Rule>();
+		RuleArena arena = new RuleArena();
 		Integer valueThreshold = -1;
 		List<Rule> candidateRules = new ArrayList<Rule>();
 		
@@ -919,7 +1678,7 @@ public class NonStarCountSolvers {
 			for (int val = 0; val < colRules.size(); val++) {
 				Rule rule = colRules.get(val);
 				ruleMap.put(rule, rule);
-				ruleListMap.put(rule.values, rule);
+				arena.add(rule);
 				superRules.put(rule, new HashSet<Rule>());
 				candidateRules.add(rule);
 			}
@@ -928,48 +1687,48 @@ public class NonStarCountSolvers {
 		Collections.reverse(candidateRules);
 		valueThreshold = candidateRules.get(numRules).maxMarginalValue;
 				
-		Set<Rule> latestSuperRules = ruleMap.keySet();
+		// Rules are added to the arena level by level, so the latest level is the id range [levelFrom, levelTo).
+		int levelFrom = 0;
+		int levelTo = arena.size();
 		
-		for (int currentSize = 2; currentSize < 7; currentSize++) {
+		for (int currentSize = 2; currentSize <= ruleSizeLimit(table); currentSize++) {
 			//out.println(bestMarginalRuleValue);
-			Set<Rule> nextSuperRules = new HashSet<Rule>();
-			for (Rule r : latestSuperRules) {
-				Rule rule = ruleMap.get(r);
+			RuleArena nextSuperRules = new RuleArena();
+			for (int id = levelFrom; id < levelTo; id++) {
+				Rule rule = arena.get(id);
 				if (rule.maxMarginalValue + rule.count * (maxRuleScore - rule.score) >= valueThreshold) {
-					nextSuperRules.addAll(rule.findSuperRules(table, currentSize));					
+					arena.addSuperRules(table, rule, nextSuperRules);
 				}
 			}
 			//out.println("Generated " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			Iterator<Rule> ruleIter = nextSuperRules.iterator();
-			while (ruleIter.hasNext()) {
-				Rule rule = ruleIter.next();
+			List<Rule> acceptedRules = new ArrayList<Rule>();
+			for (int id = 0; id < nextSuperRules.size(); id++) {
+				Rule rule = nextSuperRules.get(id);
 				rule.setScore(table, scorer);
 				//final Integer countUpperBound = countUpperBound(rule, ruleMap);
 				//setMarginalValueUpperBound(rule, countUpperBound, ruleMap);
 				//final Integer upperBound = rule.maxMarginalValue + (maxRuleScore - rule.score) * countUpperBound;
-				final Integer upperBound = subRuleMarginalValueUpperBoundLimited(rule, ruleListMap, ruleMap, superRules, maxRuleScore, valueThreshold);
-				if (upperBound < valueThreshold) { 
-					ruleIter.remove();
+				final Integer upperBound = subRuleMarginalValueUpperBoundLimited(rule, arena, maxRuleScore, valueThreshold);
+				if (upperBound >= valueThreshold) { 
+					acceptedRules.add(rule);
 				}
 			}
-			if (nextSuperRules.isEmpty()) {
+			if (acceptedRules.isEmpty()) {
 				break;
 			}
-			//out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			for (Rule rule : nextSuperRules) {
-				Rule r = new Rule(table, rule.valueMap, rule.length(), 0, false, scorer); // Unnecessary doubling of memory?
-				r.maxMarginalValue = rule.maxMarginalValue;
-				Set<Rule> subRules = r.findSubRules(currentSize - 1);
-				for (Rule subRule : subRules) {
-					if (ruleMap.containsKey(subRule)) {
-						superRules.get(subRule).add(r);
-						break;
-					}
+			//out.println("Accepted " + acceptedRules.size() + " candidate rules of size " + currentSize);
+			levelFrom = arena.size();
+			for (Rule r : acceptedRules) {
+				// The candidate itself becomes the lattice's instance of the rule, instead of a copy of it.
+				for (Rule subRule : arena.findSubRules(r, currentSize - 1)) {
+					superRules.get(subRule).add(r);
+					break;
 				}
 				ruleMap.put(r, r);
-				ruleListMap.put(r.values, r);
+				arena.add(r);
 				superRules.put(r, new HashSet<Rule>());
 			}
+			levelTo = arena.size();
 			//long initial = System.currentTimeMillis();
 			if (currentSize == 2) { // Update marginal counts here and below.
 				updateCountsAndMarginalValuesSizeTwo (table, ruleMap, new HashSet<Rule>());
@@ -978,9 +1737,8 @@ public class NonStarCountSolvers {
 			}
 			//out.println(System.currentTimeMillis() - initial);
 			
-			latestSuperRules = nextSuperRules;
-			for (Rule r : nextSuperRules) {
-				candidateRules.add(ruleMap.get(r));
+			for (int id = levelFrom; id < levelTo; id++) {
+				candidateRules.add(arena.get(id));
 			}
 			Collections.sort(candidateRules);
 			Collections.reverse(candidateRules);
@@ -999,10 +1757,11 @@ public class NonStarCountSolvers {
 			Integer maxRuleScore, Set<Rule> solution, Scorer scorer) throws IOException {
 		// This function yet to be implemented.
 		final Integer length = table.dictionary.size();
-		List<List<Rule>> singleRules = getSingleRulesWithMarginalValues (table, solution, scorer);
+		final SolutionCoverage coverage = new SolutionCoverage(table, solution);
+		List<List<Rule>> singleRules = getSingleRulesWithMarginalValues (table, coverage, scorer);
 		Rule bestRule = null;
 		Integer bestMarginalRuleValue = -1;
-		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.contents.size(), true, scorer);
+		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.totalWeight(), true, scorer);
 		if (!superRules.containsKey(emptyRule)) {
 			superRules.put(emptyRule, new HashSet<Rule>());
 		}	
@@ -1023,66 +1782,67 @@ public class NonStarCountSolvers {
 			}
 		}
 		
-		ruleMap.put(emptyRule, emptyRule);
-		Set<Rule> latestSuperRules = ruleMap.keySet();
-		latestSuperRules.remove(emptyRule);
+		ruleMap.remove(emptyRule);
+		List<Rule> latestSuperRules = new ArrayList<Rule>();
+		RuleArena arena = new RuleArena();
+		for (Rule rule : ruleMap.values()) {
+			arena.add(rule);
+			if (rule.size() == 1) {
+				latestSuperRules.add(rule);
+			}
+		}
 		
-		for (int currentSize = 2; currentSize < 7; currentSize++) {
+		for (int currentSize = 2; currentSize <= ruleSizeLimit(table); currentSize++) {
 			//out.println(bestMarginalRuleValue);
-			Set<Rule> nextSuperRules = new HashSet<Rule>();
-			for (Rule r : latestSuperRules) {
-				Rule rule = ruleMap.get(r);
+			RuleArena nextSuperRules = new RuleArena();
+			for (Rule rule : latestSuperRules) {
 				if (rule.maxMarginalValue + rule.count * (maxRuleScore - rule.score) >= bestMarginalRuleValue) {
-					nextSuperRules.addAll(rule.findSuperRules(table, currentSize));
+					arena.addSuperRules(table, rule, nextSuperRules);
 				}
 			}
 			//out.println("Generated " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			Iterator<Rule> ruleIter = nextSuperRules.iterator();
-			while (ruleIter.hasNext()) {
-				Rule rule = ruleIter.next();
+			List<Rule> acceptedRules = new ArrayList<Rule>();
+			for (int id = 0; id < nextSuperRules.size(); id++) {
+				Rule rule = nextSuperRules.get(id);
 				rule.setScore(table, scorer);
-				final Integer countUpperBound = countUpperBound(rule, ruleMap);
-				setMarginalValueUpperBound(rule, countUpperBound, ruleMap);
+				final Integer countUpperBound = countUpperBound(table, rule, arena);
+				setMarginalValueUpperBound(rule, countUpperBound, arena);
 				final Integer upperBound = rule.maxMarginalValue + (maxRuleScore - rule.score) * countUpperBound;
-				if (upperBound < bestMarginalRuleValue) { 
-					ruleIter.remove();
+				if (upperBound >= bestMarginalRuleValue) { 
+					acceptedRules.add(rule);
 				}
 			}
-			if (nextSuperRules.isEmpty()) {
+			if (acceptedRules.isEmpty()) {
 				break;
 			}
-			//out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			for (Rule rule : nextSuperRules) {
-				if (ruleMap.containsKey(rule)) {
+			//out.println("Accepted " + acceptedRules.size() + " candidate rules of size " + currentSize);
+			for (Rule r : acceptedRules) {
+				if (ruleMap.containsKey(r)) {
 					// We don't really need to find count again, only marginal values. But it isn't that costly, and easier to code.
 					// since counted = false signals that we need to re-count marginal values.
-					Rule r = ruleMap.get(rule);
 					r.count = 0;
 					r.counted = false;
 				} else{
-					Rule r = new Rule(table, rule.valueMap, rule.length(), 0, false, scorer); // Unnecessary doubling of memory?
-					Set<Rule> subRules = r.findSubRules(currentSize - 1);
-					for (Rule subRule : subRules) {
-						if (ruleMap.containsKey(subRule)) {
-							superRules.get(subRule).add(r);
-							break;
-						}
+					// The candidate itself becomes the lattice's instance of the rule, instead of a copy of it.
+					for (Rule subRule : arena.findSubRules(r, currentSize - 1)) {
+						superRules.get(subRule).add(r);
+						break;
 					}
 					ruleMap.put(r, r);
+					arena.add(r);
 					superRules.put(r, new HashSet<Rule>());
 				}
 			}
 			//long initial = System.currentTimeMillis();
 			if (currentSize == 2) { // Update marginal counts here and below.
-				updateCountsAndMarginalValuesSizeTwo (table, ruleMap, solution);
+				updateCountsAndMarginalValuesSizeTwo (table, ruleMap, coverage);
 			} else {
-				updateCountsAndMarginalValues (table, ruleMap, currentSize, superRules, solution);
+				updateCountsAndMarginalValues (table, ruleMap, currentSize, superRules, coverage);
 			}
 			//out.println(System.currentTimeMillis() - initial);
 			
-			latestSuperRules = nextSuperRules;
-			for (Rule r : nextSuperRules) {
-				Rule rule = ruleMap.get(r);
+			latestSuperRules = acceptedRules;
+			for (Rule rule : acceptedRules) {
 				if (rule.minMarginalValue > bestMarginalRuleValue) {
 					bestMarginalRuleValue = rule.minMarginalValue;
 					bestRule = rule;
@@ -1096,7 +1856,7 @@ public class NonStarCountSolvers {
 	public static void getCandidateRules (TableInfo table, Integer ruleNums, List<Rule> rules, Map<Rule, 
 			Rule> ruleMap, Map<Rule, Set<Rule>> superRules, Integer maxRuleScore, Scorer scorer) throws IOException {
 		final Integer length = table.dictionary.size();
-		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.contents.size(), true, scorer);
+		Rule emptyRule = new Rule(table, new HashMap<Integer, Integer>(), length, table.totalWeight(), true, scorer);
 		superRules.put(emptyRule, new HashSet<Rule>());
 		
 		List<List<Integer>> counts = getSingleCounts(table);
@@ -1116,100 +1876,140 @@ public class NonStarCountSolvers {
 		Collections.reverse(rules);
 		rules.add(emptyRule);
 		
-		Set<Rule> latestSuperRules = ruleMap.keySet();
+		// The first level is the single value rules. The size 2 super-rules of the empty rule are also theirs.
+		List<Rule> latestSuperRules = new ArrayList<Rule>();
+		RuleArena arena = new RuleArena();
+		for (Rule rule : ruleMap.values()) {
+			arena.add(rule);
+			if (rule.size() == 1) {
+				latestSuperRules.add(rule);
+			}
+		}
 		ruleMap.put(emptyRule, emptyRule);
 		
-		for (int currentSize = 2; currentSize < 7; currentSize++) {
+		// Each pass over the table counts levelsPerPass levels. Levels after the first of a pass are generated from candidates
+		// that are not counted yet, so they are only pruned by their counted sub-rules, against the threshold of the pass.
+		int currentSize = 2;
+		while (currentSize <= ruleSizeLimit(table)) {
 			Integer threshold = (rules.get(ruleNums - 1)).count * (rules.get(ruleNums - 1)).score;
 			out.println(threshold);
-			Set<Rule> nextSuperRules = new HashSet<Rule>();
-			for (Rule r : latestSuperRules) {
-				if ((ruleMap.get(r).count * maxRuleScore >= threshold)) {
-					nextSuperRules.addAll(r.findSuperRules(table, currentSize));					
-				}
-			}
-			out.println("Generated " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			Iterator<Rule> ruleIter = nextSuperRules.iterator();
-			while (ruleIter.hasNext()) {
-				Rule rule = ruleIter.next();
-				Integer maxCount = countUpperBound(rule, ruleMap);
-				if (maxCount * maxRuleScore < threshold) {
-					ruleIter.remove();
-				}
-			}
-			// Add 'important' rules that are not candidates themselves, but have top solution candidates as subrules, since they'll be needed to find marginal values.
-			// Removed for now since we still end up mostly doing re-counts. 
-			/*
-			for (int i = 0; i < ruleNums; i ++) {
-				for (int j = i + 1; j < ruleNums; j++) {
-					if (Rule.areConsistent(rules.get(i), rules.get(j))) {
-						Rule union = Rule.ruleUnion(rules.get(i), rules.get(j));
-						final int size = union.size();
-						if (size == currentSize) {
-							if (!nextSuperRules.contains(union)) {
-								nextSuperRules.add(union);
-							}							
+			final int passFrom = currentSize;
+			boolean exhausted = false;
+			List<Rule> passSuperRules = new ArrayList<Rule>();
+			for (; currentSize <= ruleSizeLimit(table) && currentSize < passFrom + levelsPerPass; currentSize++) {
+				RuleArena candidates = new RuleArena();
+				for (Rule r : latestSuperRules) {
+					if (!r.counted || (r.count * maxRuleScore >= threshold)) {
+						arena.addSuperRules(table, r, candidates);
+					}
+				}
+				out.println("Generated " + candidates.size() + " candidate rules of size " + currentSize);
+				List<Rule> nextSuperRules = new ArrayList<Rule>();
+				for (int id = 0; id < candidates.size(); id++) {
+					Rule rule = candidates.get(id);
+					Integer maxCount = countUpperBound(table, rule, arena);
+					if (maxCount * maxRuleScore >= threshold) {
+						nextSuperRules.add(rule);
+					}
+				}
+				// Add 'important' rules that are not candidates themselves, but have top solution candidates as subrules, since they'll be needed to find marginal values.
+				// Removed for now since we still end up mostly doing re-counts.
+				/*
+				for (int i = 0; i < ruleNums; i ++) {
+					for (int j = i + 1; j < ruleNums; j++) {
+						if (Rule.areConsistent(rules.get(i), rules.get(j))) {
+							Rule union = Rule.ruleUnion(rules.get(i), rules.get(j));
+							final int size = union.size();
+							if (size == currentSize) {
+								if (!nextSuperRules.contains(union)) {
+									nextSuperRules.add(union);
+								}
+							}
 						}
 					}
 				}
-			}
-			*/
-			if (nextSuperRules.isEmpty()) {
-				break;
-			}
-			out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
-			for (Rule rule : nextSuperRules) {
-				Rule r = new Rule(table, rule.valueMap, rule.length(), 0, false, scorer); // Unnecessary doubling of memory?
-				Set<Rule> subRules = r.findSubRules(currentSize - 1);
-				for (Rule subRule : subRules) {
-					if (ruleMap.containsKey(subRule)) {
+				*/
+				if (nextSuperRules.isEmpty()) {
+					exhausted = true;
+					break;
+				}
+				out.println("Accepted " + nextSuperRules.size() + " candidate rules of size " + currentSize);
+				for (Rule r : nextSuperRules) {
+					// The candidate itself becomes the lattice's instance of the rule, instead of a copy of it.
+					r.setScore(table, scorer);
+					for (Rule subRule : arena.findSubRules(r, currentSize - 1)) {
 						superRules.get(subRule).add(r);
-						// Breaking to avoid multiple subrules linking ot the superRule, as it is wasteful to visit it repeatedly when traversing 
+						// Breaking to avoid multiple subrules linking ot the superRule, as it is wasteful to visit it repeatedly when traversing
 						break;
 					}
+					ruleMap.put(r, r);
+					arena.add(r);
+					rules.add(r);
+					superRules.put(r, new HashSet<Rule>());
 				}
-				ruleMap.put(r, r);
-				rules.add(r);
-				superRules.put(r, new HashSet<Rule>());
+				passSuperRules.addAll(nextSuperRules);
+				latestSuperRules = nextSuperRules;
+			}
+			if (passSuperRules.isEmpty()) {
+				break;
 			}
 			long initial = System.currentTimeMillis();
-			if (currentSize == 2) {
+			if (passFrom == 2 && currentSize == 3) {
 				updateCountsSizeTwo(table, ruleMap);
 			} else {
-				updateCounts(table, ruleMap, currentSize, superRules);
+				updateCounts(table, ruleMap, passFrom, currentSize - 1, superRules);
 			}
 			/* TODO: For update counts for != 2 sized rules, replace Rule with List<Integer>? i.e. at the start, create maps from List<Integer>
-			 * instead of rule, and use those in the actual processing. 
+			 * instead of rule, and use those in the actual processing.
 			*/
 			out.println(System.currentTimeMillis() - initial);
-			
-			latestSuperRules = nextSuperRules;
-			for (Rule r : nextSuperRules) {
-				Rule rule = ruleMap.get(r);
+
+			for (Rule rule : passSuperRules) {
 				rule.minMarginalValue = rule.count * rule.score;
 				rule.maxMarginalValue = rule.count * rule.score;
 				rule.latestCountedMarginalValue = rule.count * rule.score;
 			}
 			Collections.sort(rules);
 			Collections.reverse(rules);
-		}	
+			if (exhausted) {
+				break;
+			}
+		}
 	}
 	
 	public static List<Rule> getSolution (TableInfo table, Integer ruleNums, List<Rule> rules, Map<Rule, Rule> ruleMap) {
-		Set<Rule> solution = new HashSet<Rule>();
+		return getSolution(table, ruleNums, rules, ruleMap, null);
+	}
+
+	/**
+	 * If stats is not null and stochasticEpsilon is set, the epsilon used and the marginal values counted, against the ones
+	 * exact greedy counts, are added to it (see getStochasticGreedySolution).
+	 */
+	public static List<Rule> getSolution (TableInfo table, Integer ruleNums, List<Rule> rules, Map<Rule, Rule> ruleMap,
+			SearchStats stats) {
+		if (stochasticEpsilon > 0) {
+			return getStochasticGreedySolution(table, ruleNums, rules, stochasticEpsilon, stats);
+		}
+		if (lazyGreedy) {
+			return getLazyGreedySolution(table, ruleNums, rules);
+		}
+		// Rules picked since the last count (newSolution) are added to the coverage just before the next one.
+		SolutionCoverage coverage = new SolutionCoverage(table);
 		List<Rule> solutionList = new ArrayList<Rule>();
 		Set<Rule> newSolution = new HashSet<Rule>();
 		for (int ruleNo = 0; ruleNo < ruleNums; ruleNo++) {
 			Rule rule;
 			if (rules.get(0).minMarginalValue < rules.get(1).maxMarginalValue) {
 				//out.println("\n" + ruleNo + "\n" + rules.get(0).toString() + "\n" + rules.get(1).toString() + "\n");
-				countMarginalValues (table, rules, ruleMap, solution);			
+				for (Rule picked : newSolution) {
+					coverage.add(picked);
+				}
+				countMarginalValues (table, rules, ruleMap, coverage);			
 				newSolution = new HashSet<Rule>();
 				Collections.sort(rules);
 				Collections.reverse(rules);
 			} 
 			rule = rules.get(0);
-			solution.add(rule);
 			solutionList.add(rule);
 			newSolution.add(rule);
 			rules.remove(0);
@@ -1222,14 +2022,142 @@ public class NonStarCountSolvers {
 		return solutionList;
 	}
 	
+	/**
+	 * Greedy solution of ruleNums rules out of rules, picked lazily (CELF): since a rule's marginal value can only shrink as
+	 * the solution grows, the value it last had is an upper bound of its value now. Rules are kept in a heap by
+	 * maxMarginalValue. While the top has not been counted since the last pick, it and every other such rule above the best
+	 * counted one (only the top, if none is counted yet) are taken off the heap and recounted together in one pass (see
+	 * updateCountsAndMarginalValuesSingleHash), then put back. Once the top is counted, it is picked. Picked rules are
+	 * removed from rules, and recounted ones have their count and marginal values set.
+	 */
+	public static List<Rule> getLazyGreedySolution (TableInfo table, Integer ruleNums, List<Rule> rules) {
+		SolutionCoverage coverage = new SolutionCoverage(table);
+		List<Rule> solutionList = new ArrayList<Rule>();
+		PriorityQueue<Rule> heap = new PriorityQueue<Rule>(Math.max(1, rules.size()), Collections.reverseOrder());
+		// Rules whose marginal value is exact for the current solution.
+		Set<Rule> fresh = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+		for (Rule rule : rules) {
+			heap.add(rule);
+			if (rule.minMarginalValue.equals(rule.maxMarginalValue)) {
+				fresh.add(rule);
+			}
+		}
+		while (solutionList.size() < ruleNums && !heap.isEmpty()) {
+			while (!fresh.contains(heap.peek())) {
+				final boolean anyFresh = !fresh.isEmpty();
+				Map<Rule, Rule> stale = new IdentityHashMap<Rule, Rule>();
+				while (!fresh.contains(heap.peek()) && (anyFresh || stale.isEmpty())) {
+					final Rule rule = heap.poll();
+					rule.counted = false;
+					stale.put(rule, rule);
+				}
+				updateCountsAndMarginalValuesSingleHash(table, stale, coverage);
+				for (Rule rule : stale.values()) {
+					fresh.add(rule);
+					heap.add(rule);
+				}
+			}
+			final Rule top = heap.poll();
+			solutionList.add(top);
+			coverage.add(top);
+			fresh.clear();
+		}
+		Set<Rule> picked = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+		picked.addAll(solutionList);
+		rules.removeAll(picked);
+		return solutionList;
+	}
+
+	/**
+	 * Greedy solution of ruleNums rules out of rules by stochastic greedy: each pick only counts the marginal values of a
+	 * random sample of the remaining rules, of size (n / ruleNums) * ln(1 / epsilon) for n rules, and takes the best of the
+	 * sample. The expected value of the solution is then within 1 - 1/e - epsilon of the optimum. The sample is counted in
+	 * a single hash pass. If stats is not null, epsilon is set in it, and the number of marginal values counted is added to
+	 * it, with the number exact greedy counts (every remaining rule at every pick).
+	 * As in getSolution, rules is modified: picked rules are removed from it and the others are reordered, and the sampled
+	 * rules have their count, counted and marginal values set.
+	 */
+	public static List<Rule> getStochasticGreedySolution (TableInfo table, Integer ruleNums, List<Rule> rules, double epsilon,
+			SearchStats stats) {
+		SolutionCoverage coverage = new SolutionCoverage(table);
+		List<Rule> solutionList = new ArrayList<Rule>();
+		final int sampleSize = (int) Math.max(1, Math.ceil(1.0 * rules.size() / ruleNums * Math.log(1 / epsilon)));
+		long counted = 0;
+		long exactCounted = 0;
+		while (solutionList.size() < ruleNums && !rules.isEmpty()) {
+			// Partial Fisher-Yates shuffle, moving the sample to the front of rules.
+			final int size = Math.min(sampleSize, rules.size());
+			Map<Rule, Rule> sample = new HashMap<Rule, Rule>();
+			for (int i = 0; i < size; i++) {
+				Collections.swap(rules, i, i + (int) (Math.random() * (rules.size() - i)));
+				final Rule rule = rules.get(i);
+				rule.counted = false;
+				sample.put(rule, rule);
+			}
+			updateCountsAndMarginalValuesSingleHash(table, sample, coverage);
+			counted += size;
+			exactCounted += rules.size();
+			int best = 0;
+			for (int i = 1; i < size; i++) {
+				if (rules.get(i).latestCountedMarginalValue > rules.get(best).latestCountedMarginalValue) {
+					best = i;
+				}
+			}
+			final Rule rule = rules.remove(best);
+			solutionList.add(rule);
+			coverage.add(rule);
+		}
+		if (stats != null) {
+			stats.epsilon = epsilon;
+			stats.marginalValuesCounted += counted;
+			stats.exactMarginalValuesCounted += exactCounted;
+		}
+		return solutionList;
+	}
+
+	/**
+	 * Greedy solution of ruleNums rules, picked with marginalRuleEngine. With the lattice engine, the candidates counted for
+	 * a pick are kept for the next ones (see IncrementalGreedySolver), which picks the same rules.
+	 */
 	public static Set<Rule> getSolution (TableInfo table, Integer ruleNums, Integer maxRuleScore, Scorer scorer, 
 			Integer requiredColumn) throws IOException {
+		return getSolution(table, ruleNums, maxRuleScore, scorer, requiredColumn, null, null, null);
+	}
+
+	/**
+	 * Anytime version of getSolution: each rule is passed to listener (if not null) as soon as it is picked, and the search
+	 * stops with the rules found so far once budget (if not null) is expired, or no rule is found. With the lattice engine,
+	 * the budget is also checked within a pick, which is dropped if it expires. What the search did is added to stats (if
+	 * not null).
+	 */
+	public static Set<Rule> getSolution (TableInfo table, Integer ruleNums, Integer maxRuleScore, Scorer scorer, 
+			Integer requiredColumn, RuleListener listener, SearchBudget budget, SearchStats stats) throws IOException {
+		if (marginalRuleEngine instanceof LatticeEngine) {
+			IncrementalGreedySolver solver = new IncrementalGreedySolver(table, maxRuleScore, scorer, requiredColumn, budget,
+					stats);
+			for (int i = 0; i < ruleNums && (budget == null || !budget.expired()); i++) {
+				final Rule r = solver.next();
+				if (r == null) {
+					break;
+				}
+				if (listener != null) {
+					listener.ruleFound(r);
+				}
+			}
+			return solver.getSolution();
+		}
 		Set<Rule> solutionSet = new HashSet<Rule>();
-		for (int i = 0; i < ruleNums; i++) {
+		for (int i = 0; i < ruleNums && (budget == null || !budget.expired()); i++) {
 			//long initial = System.currentTimeMillis();
 			//Rule r = getBestMarginalRule(table, ruleMap, superRules, maxRuleScore, solutionSet);
-			Rule r = getBestMarginalRule(table, maxRuleScore, solutionSet, scorer, requiredColumn);
+			Rule r = marginalRuleEngine.getBestMarginalRule(table, maxRuleScore, solutionSet, scorer, requiredColumn);
+			if (r == null) {
+				break;
+			}
 			solutionSet.add(r);
+			if (listener != null) {
+				listener.ruleFound(r);
+			}
 			//out.printf("Iteration %d, Time %d\n", i, System.currentTimeMillis() - initial);
 		}
 		return solutionSet;
@@ -1243,24 +2171,98 @@ public class NonStarCountSolvers {
 	 */
 	public static Set<Rule> getSolution (TableInfo table, Rule baseRule, Integer ruleNums, Integer maxRuleScore, final Scorer scorer,
 			Integer requiredColumn, SampleHandler sampleHandler) throws IOException {
-		Integer sampleSize = sampleHandler.minSampleSize;
-		final TableSample sample = TableSample.createSample(table, baseRule, sampleSize);
-		final TableInfo origTable = table;
+		return getSolution(table, baseRule, ruleNums, maxRuleScore, scorer, requiredColumn, sampleHandler, null, null, null);
+	}
+
+	/**
+	 * Anytime version of the above: each rule, with the components of baseRule added, is passed to listener (if not null)
+	 * as soon as it is picked, and the search stops with the rules found so far once budget (if not null) is expired.
+	 */
+	public static Set<Rule> getSolution (TableInfo table, Rule baseRule, Integer ruleNums, Integer maxRuleScore, final Scorer scorer,
+			Integer requiredColumn, SampleHandler sampleHandler, final RuleListener listener, SearchBudget budget, SearchStats stats)
+			throws IOException {
+		final TableSample sample = sampleHandler.getSample(baseRule);
+		return getSampleSolution(table, sample, ruleNums, maxRuleScore, scorer, requiredColumn, listener, budget, stats);
+	}
+
+	/**
+	 * Solution for the part of table covered by sample's filterRule, found on sample, with the components of the filterRule
+	 * added to its rules.
+	 */
+	private static Set<Rule> getSampleSolution (final TableInfo table, final TableSample sample, Integer ruleNums,
+			Integer maxRuleScore, final Scorer scorer, Integer requiredColumn, final RuleListener listener, SearchBudget budget,
+			SearchStats stats) throws IOException {
 		Scorer sampleScorer = new Scorer () {
 			@Override
-			public void setScore(TableInfo table, Rule rule) {
+			public void setScore(TableInfo sampleTable, Rule rule) {
 				final Rule expandedRule = sample.expandRule(rule);
-				scorer.setScore(origTable, expandedRule);
+				scorer.setScore(table, expandedRule);
 				rule.score = expandedRule.score;
 			}
 		};
 		Integer requiredSampleColumn = requiredColumn == -1 ? -1 : sample.reverseColumnMapping.get(requiredColumn);
-		Set<Rule> truncatedSolutionSet = getSolution(sample, ruleNums, maxRuleScore, sampleScorer, requiredSampleColumn);
-		Set<Rule> solutionSet = new HashSet<Rule>();
-		for (Rule truncatedSolutionRule : truncatedSolutionSet) {
-			Rule expandedRule = sample.expandRule(truncatedSolutionRule, scorer);
-			solutionSet.add(expandedRule);
-		}
+		final Set<Rule> solutionSet = new HashSet<Rule>();
+		getSolution(sample, ruleNums, maxRuleScore, sampleScorer, requiredSampleColumn, new RuleListener() {
+			@Override
+			public void ruleFound (Rule truncatedSolutionRule) {
+				Rule expandedRule = sample.expandRule(truncatedSolutionRule, scorer);
+				solutionSet.add(expandedRule);
+				if (listener != null) {
+					listener.ruleFound(expandedRule);
+				}
+			}
+		}, budget, stats);
 		return solutionSet;
 	}
+
+	/**
+	 * A maxRuleScore estimated by estimateMaxRuleScore, with the pilot runs it comes from.
+	 */
+	public static class MaxRuleScoreEstimate {
+		public final int maxRuleScore;
+		public final int pilotScore; // Highest score of the pilot solution's rules.
+		public final long candidates; // Lattice candidates of the pilot run with maxRuleScore, -1 if it was not run.
+		public final long userCandidates; // Lattice candidates of the pilot run with the user's maxRuleScore.
+
+		MaxRuleScoreEstimate (int maxRuleScore, int pilotScore, long candidates, long userCandidates) {
+			this.maxRuleScore = maxRuleScore;
+			this.pilotScore = pilotScore;
+			this.candidates = candidates;
+			this.userCandidates = userCandidates;
+		}
+	}
+
+	/**
+	 * Estimates the maxRuleScore to expand baseRule with, from a greedy solution with userMaxRuleScore on a pilot sample of
+	 * pilotSampleSize rows: the highest score of its rules, plus maxRuleScoreMargin of it (and at least 1), which is above
+	 * userMaxRuleScore if the pilot's rules come close to it.
+	 */
+	public static MaxRuleScoreEstimate estimateMaxRuleScore (TableInfo table, Rule baseRule, Integer ruleNums, Scorer scorer,
+			Integer requiredColumn, int userMaxRuleScore) throws IOException {
+		return estimateMaxRuleScore(table, baseRule, ruleNums, scorer, requiredColumn, userMaxRuleScore, false);
+	}
+
+	/**
+	 * If compare is true and the estimate is not userMaxRuleScore, the pilot is run again on the same sample with the
+	 * estimate, so that the two candidate counts can be compared. This doubles the cost of the estimate.
+	 */
+	public static MaxRuleScoreEstimate estimateMaxRuleScore (TableInfo table, Rule baseRule, Integer ruleNums, Scorer scorer,
+			Integer requiredColumn, int userMaxRuleScore, boolean compare) throws IOException {
+		final TableSample pilot = TableSample.createSample(table, baseRule, pilotSampleSize);
+		final SearchStats userStats = new SearchStats();
+		int maxScore = 0;
+		for (Rule rule : getSampleSolution(table, pilot, ruleNums, userMaxRuleScore, scorer, requiredColumn, null, null, userStats)) {
+			maxScore = Math.max(maxScore, rule.score);
+		}
+		final int estimate = maxScore + Math.max(1, (int) Math.ceil(maxScore * maxRuleScoreMargin));
+		final SearchStats stats = new SearchStats();
+		if (estimate == userMaxRuleScore) {
+			stats.candidatesGenerated = userStats.candidatesGenerated;
+		} else if (compare) {
+			getSampleSolution(table, pilot, ruleNums, estimate, scorer, requiredColumn, null, null, stats);
+		} else {
+			stats.candidatesGenerated = -1;
+		}
+		return new MaxRuleScoreEstimate(estimate, maxScore, stats.candidatesGenerated, userStats.candidatesGenerated);
+	}
 }
@@ -0,0 +1,61 @@
+package solvers;
+
+import java.util.Collection;
+
+import dataextraction.PackedRows;
+
+/**
+ * A fixed set of rules together with their mask/bits encodings under a table's PackedRows layout, so that checking if a
+ * row is covered by a rule is a few AND and compare operations instead of a walk over the rule's valueMap.
+ * The rules must not be modified while the set is in use.
+ */
+public class PackedRuleSet {
+	final PackedRows packedRows;
+	final int words;
+	final Rule[] rules;
+	final long[] masks;
+	final long[] bits;
+
+	public PackedRuleSet (PackedRows packedRows, Collection<Rule> ruleCollection) {
+		this.packedRows = packedRows;
+		this.words = packedRows.wordsPerRow();
+		this.rules = ruleCollection.toArray(new Rule[ruleCollection.size()]);
+		this.masks = new long[rules.length * words];
+		this.bits = new long[rules.length * words];
+		for (int i = 0; i < rules.length; i++) {
+			packedRows.encodeRule(rules[i], masks, bits, i * words);
+		}
+	}
+
+	public int size () {
+		return rules.length;
+	}
+
+	public Rule get (int i) {
+		return rules[i];
+	}
+
+	/**
+	 * Is the given row of the table covered by the i^th rule.
+	 */
+	public boolean matches (int i, int row) {
+		if (words == 1) {
+			return (packedRows.words()[row] & masks[i]) == bits[i];
+		}
+		return packedRows.matches(row, masks, bits, i * words);
+	}
+
+	/**
+	 * Highest score among the rules covering the row, or 0 if none does. Used to get the part of a row's weight that is
+	 * already covered by the solution.
+	 */
+	public int maxScore (int row) {
+		int maxScore = 0;
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].score > maxScore && matches(i, row)) {
+				maxScore = rules[i].score;
+			}
+		}
+		return maxScore;
+	}
+}
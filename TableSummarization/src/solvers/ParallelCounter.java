@@ -0,0 +1,126 @@
+package solvers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A counting pass over the rows of a table, run on a fork-join pool. The rows are cut into ranges, and each range is
+ * counted into its own counts and marginal values arrays, indexed by candidate id, so counting threads share nothing but
+ * read-only state. The arrays of two halves of a range are summed as the halves are joined.
+ * Subclasses count a range of rows in countRows, allocating any buffers they need there. Passes that write their results
+ * in place rather than count them use ParallelRanges instead.
+ */
+public abstract class ParallelCounter {
+	public static int parallelism = Runtime.getRuntime().availableProcessors(); // Threads counting passes run on.
+	public static int minRowsPerRange = 1 << 14; // Passes over fewer rows than twice this run on the calling thread.
+	// Passes use fewer ranges if the arrays of all of them would take more bytes than this.
+	public static long maxRangeArrayBytes = 64L << 20;
+	private static ForkJoinPool pool;
+
+	final int numCandidates;
+	final boolean counted; // Whether the pass fills counts. If not, countRows gets null counts.
+	final boolean marginal; // Whether the pass fills marginal values. If not, countRows gets null marginalValues.
+
+	public ParallelCounter (int numCandidates) {
+		this(numCandidates, true, true);
+	}
+
+	public ParallelCounter (int numCandidates, boolean counted, boolean marginal) {
+		this.numCandidates = numCandidates;
+		this.counted = counted;
+		this.marginal = marginal;
+	}
+
+	/**
+	 * Adds the coverage of rows from to to - 1 to counts and marginalValues. Called on several threads at once, each call
+	 * with its own arrays.
+	 */
+	protected abstract void countRows (int from, int to, int[] counts, int[] marginalValues);
+
+	/**
+	 * Counts rows 0 to numRows - 1. Returns the counts, followed by the marginal values (either null if the pass does not
+	 * fill it).
+	 */
+	public int[][] count (int numRows) {
+		return count(numRows, minRowsPerRange);
+	}
+
+	/**
+	 * Counts rows 0 to numRows - 1, in ranges of at least minPerRange rows, for passes whose rows (e.g. candidates) cost
+	 * more than table rows.
+	 */
+	public int[][] count (int numRows, int minPerRange) {
+		// A few ranges per thread, so that a thread done early can steal, but not so many that the arrays use much memory.
+		final long rangeArrayBytes = 4L * numCandidates * ((counted ? 1 : 0) + (marginal ? 1 : 0));
+		final long maxRanges = Math.min(2L * parallelism, maxRangeArrayBytes / Math.max(1, rangeArrayBytes));
+		final int numRanges = (int) Math.max(1, Math.min(maxRanges, numRows / minPerRange));
+		if (numRanges == 1) {
+			int[][] result = newArrays();
+			countRows(0, numRows, result[0], result[1]);
+			return result;
+		}
+		final RangeTask task = new RangeTask(numRows, 0, numRanges, numRanges);
+		pool().invoke(task);
+		return task.result;
+	}
+
+	private int[][] newArrays () {
+		return new int[][] {counted ? new int[numCandidates] : null, marginal ? new int[numCandidates] : null};
+	}
+
+	static synchronized ForkJoinPool pool () {
+		if (pool == null || pool.getParallelism() != parallelism) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool(parallelism);
+		}
+		return pool;
+	}
+
+	/**
+	 * Counts ranges from to to - 1 of the numRanges equal ranges of the rows, splitting them in halves.
+	 */
+	class RangeTask extends RecursiveAction {
+		final int numRows;
+		final int from;
+		final int to;
+		final int numRanges;
+		int[][] result;
+
+		RangeTask (int numRows, int from, int to, int numRanges) {
+			this.numRows = numRows;
+			this.from = from;
+			this.to = to;
+			this.numRanges = numRanges;
+		}
+
+		private int rangeStart (int range) {
+			return (int) ((long) numRows * range / numRanges);
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from == 1) {
+				result = newArrays();
+				countRows(rangeStart(from), rangeStart(to), result[0], result[1]);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			final RangeTask left = new RangeTask(numRows, from, mid, numRanges);
+			final RangeTask right = new RangeTask(numRows, mid, to, numRanges);
+			invokeAll(left, right);
+			result = left.result;
+			for (int k = 0; k < 2; k++) {
+				final int[] sum = result[k];
+				final int[] other = right.result[k];
+				if (sum == null) {
+					continue;
+				}
+				for (int id = 0; id < numCandidates; id++) {
+					sum[id] += other[id];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package solvers;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A loop over 0 to n - 1, cut into ranges run on the fork-join pool of ParallelCounter, for passes whose ranges write
+ * their results in place (each index to its own entries) rather than count them.
+ */
+public abstract class ParallelRanges {
+	/**
+	 * Runs the loop for from to to - 1. Called on several threads at once, on disjoint ranges.
+	 */
+	protected abstract void runRange (int from, int to);
+
+	/**
+	 * Runs the loop for 0 to n - 1, on the calling thread if n is less than twice ParallelCounter.minRowsPerRange.
+	 */
+	public void run (int n) {
+		run(n, ParallelCounter.minRowsPerRange);
+	}
+
+	/**
+	 * Same as above, in ranges of at least minPerRange indices.
+	 */
+	public void run (int n, int minPerRange) {
+		final int numRanges = (int) Math.max(1, Math.min(2L * ParallelCounter.parallelism, n / minPerRange));
+		if (numRanges == 1) {
+			runRange(0, n);
+			return;
+		}
+		ParallelCounter.pool().invoke(new RangeTask(n, 0, numRanges, numRanges));
+	}
+
+	/**
+	 * Runs ranges from to to - 1 of the numRanges equal ranges of 0 to n - 1, splitting them in halves.
+	 */
+	class RangeTask extends RecursiveAction {
+		final int n;
+		final int from;
+		final int to;
+		final int numRanges;
+
+		RangeTask (int n, int from, int to, int numRanges) {
+			this.n = n;
+			this.from = from;
+			this.to = to;
+			this.numRanges = numRanges;
+		}
+
+		private int rangeStart (int range) {
+			return (int) ((long) n * range / numRanges);
+		}
+
+		@Override
+		protected void compute () {
+			if (to - from == 1) {
+				runRange(rangeStart(from), rangeStart(to));
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new RangeTask(n, from, mid, numRanges), new RangeTask(n, mid, to, numRanges));
+		}
+	}
+}
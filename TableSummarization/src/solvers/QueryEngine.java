@@ -15,7 +15,7 @@ import dataextraction.TableInfo;
 public class QueryEngine {
 	public static RuleTree drillDownTree (TableInfo table, Map<Rule, Rule> ruleMap, List<Rule> rules, List<Integer> drillColumns) {
 		final Integer numCols = table.dictionary.size();
-		Rule rootRule = new Rule(table, new HashMap<Integer, Integer>(), numCols, table.contents.size(), true, null);
+		Rule rootRule = new Rule(table, new HashMap<Integer, Integer>(), numCols, table.totalWeight(), true, null);
 		Map<Rule, List<Rule>> childrenRules = new HashMap<Rule, List<Rule>>();
 		childrenRules.put(rootRule, new ArrayList<Rule>());
 		
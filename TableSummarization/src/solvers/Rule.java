@@ -22,6 +22,7 @@ public class Rule implements Comparable<Rule> {
 	Integer latestCountedMarginalValue; // Latest marginal value is fully reliable, i.e. has been counted by making a pass over the data.
 	public Boolean counted; // Have we made an actual count of the rule's coverage
 	final Map<Integer, Integer> valueMap; // Useful for sparse rules. Map from index to non-star value at the index.
+	private RuleKey key; // Cached compact key of valueMap, used for hashing and equality. Reset by addVal/deleteVal.
 	
 	public Integer get(Integer index) {
 		return values.get(index);
@@ -34,6 +35,16 @@ public class Rule implements Comparable<Rule> {
 	public Integer length() {
 		return values.size();
 	}
+
+	/**
+	 * Compact key identifying this rule's values. Computed on first use and cached until the values change.
+	 */
+	public RuleKey key() {
+		if (key == null) {
+			key = RuleKey.of(valueMap, values.size());
+		}
+		return key;
+	}
 	
 	public static class nullScorer implements Scorer {
 		@Override
@@ -126,12 +137,14 @@ public class Rule implements Comparable<Rule> {
 	}
 
 	public void deleteVal (int index) {
+		key = null;
 		values.set(index, -1);
 		valueMap.remove(index);
 		size--;
 	}
 
 	public void addVal (int index, int value) {
+		key = null;
 		values.set(index, value);
 		valueMap.put(index, value);
 		size++;
@@ -257,7 +270,7 @@ public class Rule implements Comparable<Rule> {
 	 * Two rules are equal if the rule string is equal. Otherwise, we compare counts. In case of equal counts, we compare rule strings 
 	 */
 	public int compareTo(Rule r2) {
-		if (valueMap.equals(r2.valueMap)) {
+		if (key().equals(r2.key())) {
 			return 0;
 		}
 		if (maxMarginalValue != r2.maxMarginalValue) {
@@ -282,14 +295,14 @@ public class Rule implements Comparable<Rule> {
 		if (!o.getClass().equals(Rule.class)) {
 			return false;
 		} else {
-			return valueMap.equals(((Rule)o).valueMap);
+			return key().equals(((Rule)o).key());
 		}
 		
 	}
 	
 	@Override
 	public int hashCode() {
-		return valueMap.hashCode();
+		return key().hashCode();
 	}
 	
 	@Override
@@ -609,6 +622,18 @@ public class Rule implements Comparable<Rule> {
 		}
 		return isSubRule;
 	}
+
+	/**
+	 * Same as isSubRule (Rule, List<Integer>), for a tuple read with TableInfo.fillRow.
+	 */
+	public static boolean isSubRule (Rule r1, int[] r2) {
+		for (int i : r1.valueMap.keySet()) {
+			if (r1.values.get(i) != r2[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
 	
 	/**
 	 * Union of two consistent rules is the smallest sized rule which is a super-rule of both input rules.
@@ -629,39 +654,44 @@ public class Rule implements Comparable<Rule> {
 	}
 	
 	/**
-	 * Find sub-rules of a particular size (size refers to number of non-zero elements).
+	 * Find sub-rules of a particular size (size refers to number of non-zero elements). Each is built once from its
+	 * columns, without mutating this rule or the sub-rules, so that the key of each is only computed once.
 	 */
 	public Set<Rule> findSubRules (Integer size) {
 		Set<Rule> subRules = new HashSet<Rule>();
-		if (size < 0) {
-			// Do nothing. Return empty set.
-		} else if (size == 0) {
+		if (size < 0 || size > size()) {
+			return subRules;
+		}
+		final int[] columns = new int[size()];
+		int numColumns = 0;
+		for (int i = 0; i < length(); i++) {
+			if (get(i) != -1) {
+				columns[numColumns++] = i;
+			}
+		}
+		// chosen holds the positions in columns of the sub-rule's columns, in increasing order.
+		final int[] chosen = new int[size];
+		for (int i = 0; i < size; i++) {
+			chosen[i] = i;
+		}
+		while (true) {
 			Map<Integer, Integer> subRuleValueMap = new HashMap<Integer, Integer>();
+			for (int i = 0; i < size; i++) {
+				subRuleValueMap.put(columns[chosen[i]], get(columns[chosen[i]]));
+			}
 			subRules.add(new Rule(subRuleValueMap, length()));
-		} else if (size == 1) {
-			for (int i : valueMap.keySet()) {
-				Map<Integer, Integer> subRuleValueMap = new HashMap<Integer, Integer>();
-				subRuleValueMap.put(i, get(i));
-				subRules.add(new Rule(subRuleValueMap, length()));
+			int i = size - 1;
+			while (i >= 0 && chosen[i] == numColumns - size + i) {
+				i--;
 			}
-		} else if (size == size()) {
-			subRules.add(deepValuesCopy());
-		} else if (size > size()) {
-			// Do nothing. Return empty set.
-		} else {
-			int index = valueMap.keySet().iterator().next();
-			int value = get(index);
-			deleteVal(index);
-			Set<Rule> subRules1 = findSubRules(size - 1);
-			for (Rule subrule : subRules1) { // Do this better. also above. Make function to mutate rule.
-				subrule.addVal(index, value);
+			if (i < 0) {
+				return subRules;
+			}
+			chosen[i]++;
+			for (int j = i + 1; j < size; j++) {
+				chosen[j] = chosen[j - 1] + 1;
 			}
-			subRules.addAll(subRules1);
-			Set<Rule> subRules2 = findSubRules(size);
-			subRules.addAll(subRules2);
-			addVal(index, value);
 		}
-		return subRules;
 	}
 	
 	/**
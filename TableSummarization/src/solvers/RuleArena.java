@@ -0,0 +1,193 @@
+package solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dataextraction.TableInfo;
+
+/**
+ * Interning arena for the rules of a candidate lattice. Each distinct rule is held once, as a canonical Rule instance, and
+ * is referred to by an int id given in order of insertion (so a lattice built level by level has contiguous ids per level).
+ * Lookups go through an open-addressing table on the rules' RuleKey's, and can be made with an int[] of values without
+ * allocating. The sub-rule and super-rule enumerations only build a Rule for a lattice point that is not in the arena yet.
+ * link copies a superRules map into CSR int adjacency (the super-rules of id are child(id, 0) to
+ * child(id, numChildren(id) - 1)), for walks over the lattice that allocate nothing per rule.
+ */
+public class RuleArena {
+	Rule[] rules;
+	int size;
+	int[] table; // Open-addressing table of id + 1, 0 for an empty slot. Its length is a power of 2.
+	int[] childStart; // Set by link.
+	int[] childEnd;
+	int[] children;
+
+	public RuleArena () {
+		rules = new Rule[64];
+		table = new int[128];
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public Rule get (int id) {
+		return rules[id];
+	}
+
+	/**
+	 * Id of the rule with the given key, or -1 if it is not in the arena.
+	 */
+	public int find (RuleKey key) {
+		final int mask = table.length - 1;
+		for (int slot = key.hashCode() & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			final int id = table[slot] - 1;
+			if (rules[id].key().equals(key)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Id of the rule with the given values (-1 for stars), or -1 if it is not in the arena.
+	 */
+	public int find (int[] values) {
+		final int mask = table.length - 1;
+		for (int slot = RuleKey.hash(values) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			final int id = table[slot] - 1;
+			if (rules[id].key().sameValues(values)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The canonical instance of the rule with the given key, or null if it is not in the arena.
+	 */
+	public Rule get (RuleKey key) {
+		final int id = find(key);
+		return id == -1 ? null : rules[id];
+	}
+
+	/**
+	 * Adds rule as the canonical instance of its values, unless the arena already has one. Returns the id of the canonical
+	 * instance.
+	 */
+	public int add (Rule rule) {
+		final RuleKey key = rule.key();
+		final int mask = table.length - 1;
+		int slot = key.hashCode() & mask;
+		for (; table[slot] != 0; slot = (slot + 1) & mask) {
+			final int id = table[slot] - 1;
+			if (rules[id].key().equals(key)) {
+				return id;
+			}
+		}
+		if (size == rules.length) {
+			rules = Arrays.copyOf(rules, 2 * size);
+		}
+		final int id = size++;
+		rules[id] = rule;
+		table[slot] = id + 1;
+		if (2 * size > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash () {
+		table = new int[2 * table.length];
+		final int mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = rules[id].key().hashCode() & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Sub-rules of rule with size non-star values that are in the arena (as their canonical instances). Unlike
+	 * Rule.findSubRules, no Rule is built for the sub-rules.
+	 */
+	public List<Rule> findSubRules (Rule rule, int size) {
+		List<Rule> subRules = new ArrayList<Rule>();
+		final SubRuleEnumerator enumerator = new SubRuleEnumerator(rule.length());
+		enumerator.reset(rule, size);
+		while (enumerator.next()) {
+			final int id = find(enumerator.values);
+			if (id != -1) {
+				subRules.add(rules[id]);
+			}
+		}
+		return subRules;
+	}
+
+	/**
+	 * Adds the super-rules of rule with one more non-star value to candidates, which is the arena of the next level's
+	 * candidates. A super-rule that this arena already has is added as its canonical instance. Otherwise a new Rule is built,
+	 * unless candidates already has one.
+	 */
+	public void addSuperRules (TableInfo table, Rule rule, RuleArena candidates) {
+		final SuperRuleEnumerator enumerator = new SuperRuleEnumerator(table);
+		enumerator.reset(rule);
+		while (enumerator.next()) {
+			if (candidates.find(enumerator.values) != -1) {
+				continue;
+			}
+			final int id = find(enumerator.values);
+			if (id != -1) {
+				candidates.add(rules[id]);
+			} else {
+				List<Integer> values = new ArrayList<Integer>(enumerator.values.length);
+				for (int val : enumerator.values) {
+					values.add(val);
+				}
+				candidates.add(new Rule(values));
+			}
+		}
+	}
+
+	/**
+	 * Sets the super-rule adjacency of the arena's rules from superRules. Super-rules that are not in the arena are left out.
+	 */
+	public void link (Map<Rule, Set<Rule>> superRules) {
+		childStart = new int[size];
+		childEnd = new int[size];
+		int numChildren = 0;
+		for (int id = 0; id < size; id++) {
+			final Set<Rule> ruleSuperRules = superRules.get(rules[id]);
+			if (ruleSuperRules != null) {
+				numChildren += ruleSuperRules.size();
+			}
+		}
+		children = new int[numChildren];
+		int next = 0;
+		for (int id = 0; id < size; id++) {
+			childStart[id] = next;
+			final Set<Rule> ruleSuperRules = superRules.get(rules[id]);
+			if (ruleSuperRules != null) {
+				for (Rule superRule : ruleSuperRules) {
+					final int child = find(superRule.key());
+					if (child != -1) {
+						children[next++] = child;
+					}
+				}
+			}
+			childEnd[id] = next;
+		}
+	}
+
+	public int numChildren (int id) {
+		return childEnd[id] - childStart[id];
+	}
+
+	public int child (int id, int i) {
+		return children[childStart[id] + i];
+	}
+}
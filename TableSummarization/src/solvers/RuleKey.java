@@ -0,0 +1,247 @@
+package solvers;
+
+import java.util.Map;
+
+/**
+ * Immutable compact identity of a rule. A single long[] holds a bitmask of the rule's non-star columns, followed by its
+ * non-star values (in column order) packed two to a long, and the hash is computed once. Rules hash and compare through
+ * their key, and RuleArena looks rules up by key (or, through hash and sameValues, by an int[] of values) directly.
+ * A value of -1 is a star. Any other value, including CompoundRule's -2, is a non-star value.
+ */
+public final class RuleKey {
+	final int length; // Number of columns.
+	final int size; // Number of non-star columns.
+	final long[] data; // maskWords(length) mask words, then (size + 1) / 2 value words.
+	final int hash;
+
+	RuleKey (int length, int size, long[] data) {
+		this.length = length;
+		this.size = size;
+		this.data = data;
+		long h = length;
+		for (long word : data) {
+			h = 31 * h + word;
+		}
+		this.hash = mix(h);
+	}
+
+	private static int mix (long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	/**
+	 * Same as of(values).hashCode(), without building the key.
+	 */
+	public static int hash (int[] values) {
+		final int length = values.length;
+		long h = length;
+		for (int w = 0; w < maskWords(length); w++) {
+			long word = 0;
+			for (int col = w << 6; col < Math.min(length, (w + 1) << 6); col++) {
+				if (values[col] != -1) {
+					word |= 1L << col;
+				}
+			}
+			h = 31 * h + word;
+		}
+		long word = 0;
+		int k = 0;
+		for (int col = 0; col < length; col++) {
+			if (values[col] != -1) {
+				word |= (values[col] & 0xFFFFFFFFL) << ((k & 1) << 5);
+				if ((k & 1) == 1) {
+					h = 31 * h + word;
+					word = 0;
+				}
+				k++;
+			}
+		}
+		if ((k & 1) == 1) {
+			h = 31 * h + word;
+		}
+		return mix(h);
+	}
+
+	static int maskWords (int length) {
+		return (length + 63) >>> 6;
+	}
+
+	/**
+	 * Key of the rule with the given values, -1 being a star.
+	 */
+	public static RuleKey of (int[] values) {
+		final int length = values.length;
+		final int maskWords = maskWords(length);
+		int size = 0;
+		for (int val : values) {
+			if (val != -1) {
+				size++;
+			}
+		}
+		long[] data = new long[maskWords + (size + 1) / 2];
+		int k = 0;
+		for (int col = 0; col < length; col++) {
+			if (values[col] != -1) {
+				data[col >>> 6] |= 1L << col;
+				data[maskWords + (k >>> 1)] |= (values[col] & 0xFFFFFFFFL) << ((k & 1) << 5);
+				k++;
+			}
+		}
+		return new RuleKey(length, size, data);
+	}
+
+	/**
+	 * Key of the rule of the given length with the given non-star values.
+	 */
+	public static RuleKey of (Map<Integer, Integer> valueMap, int length) {
+		int[] values = new int[length];
+		for (int col = 0; col < length; col++) {
+			values[col] = -1;
+		}
+		for (Map.Entry<Integer, Integer> entry : valueMap.entrySet()) {
+			values[entry.getKey()] = entry.getValue();
+		}
+		return of(values);
+	}
+
+	public int length () {
+		return length;
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isStar (int col) {
+		return (data[col >>> 6] & (1L << col)) == 0;
+	}
+
+	/**
+	 * Position of col among the non-star columns, i.e. the number of non-star columns before it.
+	 */
+	private int rank (int col) {
+		int rank = 0;
+		for (int w = 0; w < (col >>> 6); w++) {
+			rank += Long.bitCount(data[w]);
+		}
+		return rank + Long.bitCount(data[col >>> 6] & ((1L << col) - 1));
+	}
+
+	private int valueAt (int k) {
+		return (int) (data[maskWords(length) + (k >>> 1)] >>> ((k & 1) << 5));
+	}
+
+	/**
+	 * Value at col, or -1 if col is a star.
+	 */
+	public int get (int col) {
+		return isStar(col) ? -1 : valueAt(rank(col));
+	}
+
+	/**
+	 * Copies the values (with -1 for stars) into values, which needs length() entries.
+	 */
+	public void fillValues (int[] values) {
+		int k = 0;
+		for (int col = 0; col < length; col++) {
+			values[col] = isStar(col) ? -1 : valueAt(k++);
+		}
+	}
+
+	/**
+	 * Key of the sub-rule with col set to star. col must be a non-star column.
+	 */
+	public RuleKey withoutColumn (int col) {
+		final int maskWords = maskWords(length);
+		final int removed = rank(col);
+		long[] newData = new long[maskWords + size / 2];
+		System.arraycopy(data, 0, newData, 0, maskWords);
+		newData[col >>> 6] &= ~(1L << col);
+		for (int k = 0, j = 0; k < size; k++) {
+			if (k != removed) {
+				newData[maskWords + (j >>> 1)] |= (valueAt(k) & 0xFFFFFFFFL) << ((j & 1) << 5);
+				j++;
+			}
+		}
+		return new RuleKey(length, size - 1, newData);
+	}
+
+	/**
+	 * Key of the super-rule with col set to val. col must be a star column.
+	 */
+	public RuleKey withValue (int col, int val) {
+		final int maskWords = maskWords(length);
+		final int inserted = rank(col);
+		long[] newData = new long[maskWords + (size + 2) / 2];
+		System.arraycopy(data, 0, newData, 0, maskWords);
+		newData[col >>> 6] |= 1L << col;
+		for (int k = 0, j = 0; j <= size; j++) {
+			final int value = j == inserted ? val : valueAt(k++);
+			newData[maskWords + (j >>> 1)] |= (value & 0xFFFFFFFFL) << ((j & 1) << 5);
+		}
+		return new RuleKey(length, size + 1, newData);
+	}
+
+	/**
+	 * Is this the key of the rule with the given values.
+	 */
+	public boolean sameValues (int[] values) {
+		if (values.length != length) {
+			return false;
+		}
+		int k = 0;
+		for (int col = 0; col < length; col++) {
+			if (isStar(col)) {
+				if (values[col] != -1) {
+					return false;
+				}
+			} else if (values[col] != valueAt(k++)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean equals (Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RuleKey)) {
+			return false;
+		}
+		final RuleKey key = (RuleKey) o;
+		if (hash != key.hash || length != key.length || data.length != key.data.length) {
+			return false;
+		}
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] != key.data[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode () {
+		return hash;
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder builder = new StringBuilder("{");
+		int k = 0;
+		for (int col = 0; col < length; col++) {
+			if (!isStar(col)) {
+				if (k > 0) {
+					builder.append(", ");
+				}
+				builder.append(col).append('=').append(valueAt(k++));
+			}
+		}
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,8 @@
+package solvers;
+
+/**
+ * Receives the rules of a solution one at a time, as getSolution picks them, on the thread running getSolution.
+ */
+public interface RuleListener {
+	public void ruleFound (Rule rule);
+}
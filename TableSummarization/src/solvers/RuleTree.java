@@ -53,7 +53,7 @@ public class RuleTree {
 		final Integer length = table.dictionary.size();
 		Rule emptyRule = new Rule(valueMap, length);
 		emptyRule.score = 0;
-		emptyRule.count = table.contents.size();
+		emptyRule.count = table.totalWeight();
 		emptyRule.counted = true;
 		nodeMap = new HashMap<Rule, RuleNode>();
 		root = new RuleNode(emptyRule);
@@ -168,6 +168,38 @@ public class RuleTree {
 			addChild (rule, solutionRule);
 		}
 	}
+
+	/**
+	 * Anytime expandStar: each rule is added as a child of rule as soon as it is picked, then passed to listener (if not
+	 * null). Stops with the children found so far once budget is expired or cancelled.
+	 */
+	public void expandStar (Rule rule, Integer ruleNums, Integer maxRuleScore, Scorer scorer, Integer col, SampleHandler sampleHandler,
+			RuleListener listener, SearchBudget budget) throws IOException {
+		NonStarCountSolvers.getSolution (table, rule, ruleNums, maxRuleScore, scorer, col, sampleHandler, childAdder(rule, listener),
+				budget, null);
+	}
+
+	/**
+	 * Anytime expandRow: each rule is added as a child of rule as soon as it is picked, then passed to listener (if not
+	 * null). Stops with the children found so far once budget is expired or cancelled.
+	 */
+	public void expandRow (Rule rule, Integer ruleNums, Integer maxRuleScore, Scorer scorer, SampleHandler sampleHandler,
+			RuleListener listener, SearchBudget budget) throws IOException {
+		NonStarCountSolvers.getSolution (table, rule, ruleNums, maxRuleScore, scorer, -1, sampleHandler, childAdder(rule, listener),
+				budget, null);
+	}
+
+	private RuleListener childAdder (final Rule parentRule, final RuleListener listener) {
+		return new RuleListener() {
+			@Override
+			public void ruleFound (Rule childRule) {
+				addChild (parentRule, childRule);
+				if (listener != null) {
+					listener.ruleFound(childRule);
+				}
+			}
+		};
+	}
 	
 	public Rule getChild (Rule parentRule, Integer index) {
 		final RuleNode parentNode = nodeMap.get(parentRule);
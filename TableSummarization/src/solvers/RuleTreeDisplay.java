@@ -189,7 +189,54 @@ public class RuleTreeDisplay {
 		return answer;
 	}
 	
-	public static void main (String[] args) throws IOException {
+	/**
+	 * Expands rule (by column colNo, or as a row if colNo is -1) on a new thread, printing each rule as soon as it is found,
+	 * then the rule list. The expansion stops with the rules found so far once budget is expired, e.g. cancelled because
+	 * the user started another drill-down.
+	 */
+	static Thread startDrillDown (final RuleTreeDisplay ruleTreeDisplay, final TableInfo table, final Rule rule,
+			final int ruleNums, final int userMaxRuleScore, final boolean autoMaxRuleScore, final Scorer scorer, final int colNo,
+			final SampleHandler sampleHandler, final SearchBudget budget) {
+		Thread thread = new Thread() {
+			@Override
+			public void run () {
+				final long timer = System.currentTimeMillis();
+				try {
+					int maxRuleScore = userMaxRuleScore;
+					if (autoMaxRuleScore) {
+						NonStarCountSolvers.MaxRuleScoreEstimate estimate = NonStarCountSolvers.estimateMaxRuleScore(table, rule,
+								ruleNums, scorer, colNo, userMaxRuleScore);
+						maxRuleScore = estimate.maxRuleScore;
+						out.println("maxRuleScore " + maxRuleScore + " (pilot rule scores up to " + estimate.pilotScore + ", "
+								+ estimate.userCandidates + " pilot candidates with " + userMaxRuleScore + ")");
+					}
+					RuleListener listener = new RuleListener() {
+						@Override
+						public void ruleFound (Rule foundRule) {
+							out.println("Found " + foundRule + " (" + (System.currentTimeMillis() - timer) + " ms)");
+						}
+					};
+					if (colNo != -1) {
+						ruleTreeDisplay.ruleTree.expandStar(rule, ruleNums, maxRuleScore, scorer, colNo, sampleHandler, listener, budget);
+					} else {
+						ruleTreeDisplay.ruleTree.expandRow(rule, ruleNums, maxRuleScore, scorer, sampleHandler, listener, budget);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					return;
+				}
+				if (budget.expired()) {
+					out.println(budget.isCancelled() ? "Cancelled" : "Out of time");
+				}
+				out.println(ruleTreeDisplay.printRuleListTex());
+				out.println("Time: " + (System.currentTimeMillis() - timer));
+			}
+		};
+		thread.start();
+		return thread;
+	}
+	
+	public static void main (String[] args) throws IOException, InterruptedException {
 		List<Integer> columns = new ArrayList<Integer>();
 		Long timer;
 		final Integer firstNumColumns = 9;
@@ -197,10 +244,12 @@ public class RuleTreeDisplay {
 			columns.add(i);
 		}
 		TableInfo fullTable = Marketing.parseData();
+		fullTable.convertToColumnar();
 		timer = System.currentTimeMillis();
 		//TableInfo fullTable = USCensus1990.parseData(0.04);
 		//out.println(System.currentTimeMillis() - timer);
-		TableInfo table = fullTable.getSubTable(columns);
+		final TableInfo table = fullTable.getSubTable(columns);
+		table.buildBitmapIndex();
 		Integer ruleNums = 4;
 		final String mw_bits_outFile = "Data_Graphs/mw_speed_bits";
 		final String mw_size_outFile = "Data_Graphs/mw_speed_size";
@@ -234,14 +283,27 @@ public class RuleTreeDisplay {
 		//if(1!=2)return;
 		int minSampleSize = Integer.MAX_VALUE;
 		int capacity = Integer.MAX_VALUE;
-		SampleHandler sampleHandler = new SampleHandler(table, capacity, minSampleSize);
+		// Samples are kept for drill-downs on the same rule, with count cubes built once.
+		SampleHandler sampleHandler = new SampleHandler(table, capacity, minSampleSize, 1 << 16);
 		RuleTree ruleTree = new RuleTree(table);
 		RuleTreeDisplay ruleTreeDisplay = new RuleTreeDisplay(ruleTree);
-		Integer maxRuleScore = 5;
 		Scanner scanner = new Scanner(System.in);
 		Scorer scorer = new Rule.sizeScorer();
+		// maxRuleScore is the first argument. If the second is "auto", each drill-down estimates its own from it. The third
+		// is the time limit of a drill-down in milliseconds, none if it is missing or negative.
+		final Integer userMaxRuleScore = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		final boolean autoMaxRuleScore = args.length > 1 && args[1].equals("auto");
+		final long timeoutMillis = args.length > 2 ? Long.parseLong(args[2]) : -1;
+		// A drill-down runs while the next input is read, and is cancelled by it.
+		Thread drillDown = null;
+		SearchBudget budget = null;
 		String input = "0";
 		do {
+			if (drillDown != null) {
+				budget.cancel();
+				drillDown.join();
+				drillDown = null;
+			}
 			timer = System.currentTimeMillis();
 			int ruleNo;
 			int colNo;
@@ -267,11 +329,9 @@ public class RuleTreeDisplay {
 				RuleNode currentNode = nodeStack.pop();
 				if(nodeNo == ruleNo) {
 					if (toExpand) {
-						if (colNo != -1) {
-							ruleTree.expandStar(currentNode.rule, ruleNums, maxRuleScore, scorer, colNo, sampleHandler);							
-						} else {
-							ruleTree.expandRow(currentNode.rule, ruleNums, maxRuleScore, scorer, sampleHandler);
-						}
+						budget = new SearchBudget(timeoutMillis);
+						drillDown = startDrillDown(ruleTreeDisplay, table, currentNode.rule, ruleNums, userMaxRuleScore,
+								autoMaxRuleScore, scorer, colNo, sampleHandler, budget);
 					} else {
 						ruleTree.contractRow(currentNode.rule);
 					}	
@@ -289,11 +349,17 @@ public class RuleTreeDisplay {
 				}
 				nodeNo++;
 			}	
-			//out.println(ruleTreeDisplay.treeStringSparse(table));
-			out.println(ruleTreeDisplay.printRuleListTex());
-			out.println("Time: " + (System.currentTimeMillis() - timer));
+			if (drillDown == null) {
+				//out.println(ruleTreeDisplay.treeStringSparse(table));
+				out.println(ruleTreeDisplay.printRuleListTex());
+				out.println("Time: " + (System.currentTimeMillis() - timer));
+			}
 			input = scanner.nextLine();
 		} while (!input.equals("end")); 
+		if (drillDown != null) {
+			budget.cancel();
+			drillDown.join();
+		}
 		scanner.close();
 	}
 }
@@ -2,6 +2,11 @@ package solvers;
 
 import dataextraction.TableInfo;
 
+/**
+ * Sets the score of a rule. getBestMarginalRule scores the candidates of a lattice level on several threads at once (see
+ * NonStarCountSolvers.parallelScoring), so setScore must be safe to call concurrently, writing nothing but the rule it is
+ * given. Set NonStarCountSolvers.parallelScoring to false for scorers that are not.
+ */
 public interface Scorer {
 	public void setScore (TableInfo table, Rule rule);
 }
@@ -0,0 +1,33 @@
+package solvers;
+
+/**
+ * Deadline and cancellation flag of a drill-down. getSolution checks it before each pick, and the lattice engine also
+ * before each level of a pick, and stops with the rules found so far once it is expired (dropping the pick under way).
+ * cancel may be called from any thread, e.g. when the user starts a new drill-down.
+ */
+public class SearchBudget {
+	final long deadline; // In System.currentTimeMillis() time, Long.MAX_VALUE for none.
+	private volatile boolean cancelled;
+
+	/**
+	 * A budget of timeoutMillis from now, or with no deadline if timeoutMillis is negative.
+	 */
+	public SearchBudget (long timeoutMillis) {
+		deadline = timeoutMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis;
+	}
+
+	public void cancel () {
+		cancelled = true;
+	}
+
+	public boolean isCancelled () {
+		return cancelled;
+	}
+
+	/**
+	 * Has the deadline passed, or the search been cancelled.
+	 */
+	public boolean expired () {
+		return cancelled || System.currentTimeMillis() >= deadline;
+	}
+}
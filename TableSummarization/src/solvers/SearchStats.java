@@ -0,0 +1,13 @@
+package solvers;
+
+/**
+ * What a search did, filled in by getSolution, getBestMarginalRule and getStochasticGreedySolution when given one. An
+ * instance belongs to one search, and is only written by the thread running it.
+ */
+public class SearchStats {
+	public long candidatesGenerated; // Lattice candidates generated by getBestMarginalRule, over all its calls.
+	public long marginalValuesCounted; // Marginal values of rules counted by getStochasticGreedySolution.
+	public long exactMarginalValuesCounted; // The ones exact greedy would have counted instead.
+	public double epsilon; // Epsilon getStochasticGreedySolution sampled with, 0 if it did not run.
+	public boolean depthLimited; // Whether getBestMarginalRule skipped a level for lack of heap (see maxLevelHeapFraction).
+}
@@ -0,0 +1,85 @@
+package solvers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import dataextraction.PackedRows;
+import dataextraction.TableInfo;
+
+/**
+ * The best score of a solution rule covering each row of a table, which marginal value passes subtract from the scores of
+ * the rules they count. It is set up in one pass over the table, then raised with add when a rule joins the solution, which
+ * only writes the rows the rule covers, so passes read a row's score instead of matching every solution rule against it.
+ */
+public class SolutionCoverage {
+	final TableInfo table;
+	public final Set<Rule> rules; // The solution.
+	public final int[] rowScore; // Best score of a solution rule covering each row, 0 if none does.
+
+	public SolutionCoverage (TableInfo table) {
+		this.table = table;
+		rules = new HashSet<Rule>();
+		rowScore = new int[table.numRows()];
+	}
+
+	public SolutionCoverage (final TableInfo table, final Set<Rule> solution) {
+		this(table);
+		rules.addAll(solution);
+		if (solution.isEmpty()) {
+			return;
+		}
+		final int length = table.dictionary.size();
+		final PackedRows packedRows = table.packedRows;
+		final PackedRuleSet solutionSet = packedRows == null ? null : new PackedRuleSet(packedRows, solution);
+		new ParallelRanges() {
+			@Override
+			protected void runRange (int from, int to) {
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					if (solutionSet != null) {
+						rowScore[row] = solutionSet.maxScore(row);
+						continue;
+					}
+					table.fillRow(row, tuple);
+					int maxScore = 0;
+					for (Rule rule : solution) {
+						if (rule.score > maxScore && Rule.isSubRule(rule, tuple)) {
+							maxScore = rule.score;
+						}
+					}
+					rowScore[row] = maxScore;
+				}
+			}
+		}.run(table.numRows());
+	}
+
+	/**
+	 * Adds rule to the solution, raising the score of the rows it covers. The rows are read off the bitmap index if the table
+	 * has one.
+	 */
+	public void add (final Rule rule) {
+		rules.add(rule);
+		final int score = rule.score;
+		if (table.bitmapIndex != null) {
+			for (int row : table.bitmapIndex.rowsFor(rule).toArray()) {
+				rowScore[row] = Math.max(rowScore[row], score);
+			}
+			return;
+		}
+		final int length = table.dictionary.size();
+		new ParallelRanges() {
+			@Override
+			protected void runRange (int from, int to) {
+				final int[] tuple = new int[length];
+				for (int row = from; row < to; row++) {
+					if (rowScore[row] < score) {
+						table.fillRow(row, tuple);
+						if (Rule.isSubRule(rule, tuple)) {
+							rowScore[row] = score;
+						}
+					}
+				}
+			}
+		}.run(table.numRows());
+	}
+}
@@ -0,0 +1,123 @@
+package solvers;
+
+/**
+ * Walks the sub-rules of a given size of a rule (or tuple) in place, without building a Rule or a set for each of them.
+ * The k-subsets of the rule's non-star columns are enumerated with Gosper's hack on a bitmask of column positions, and only
+ * the columns that change between consecutive subsets are updated in values. Rules with more than 62 non-star columns
+ * (wide tuples) use an array of positions instead of the mask.
+ * 
+ * Usage: reset(ruleValues, size), then while (next()) { ... values ... }. values must not be modified by the caller.
+ */
+public class SubRuleEnumerator {
+	static final int MAX_MASK_COLUMNS = 62;
+
+	public final int[] values; // Current sub-rule, -1 for stars.
+	final int[] ruleValues;
+	final int[] columns; // Non-star columns of the rule.
+	int numColumns;
+	int size;
+	boolean started;
+	boolean done;
+	long subset; // Positions (in columns) of the current sub-rule's non-star columns.
+	final int[] positions; // Same, for rules with more than MAX_MASK_COLUMNS non-star columns.
+
+	public SubRuleEnumerator (int length) {
+		values = new int[length];
+		ruleValues = new int[length];
+		columns = new int[length];
+		positions = new int[length];
+	}
+
+	public void reset (Rule rule, int size) {
+		for (int col = 0; col < values.length; col++) {
+			ruleValues[col] = rule.get(col);
+		}
+		start(size);
+	}
+
+	public void reset (int[] ruleValues, int size) {
+		System.arraycopy(ruleValues, 0, this.ruleValues, 0, values.length);
+		start(size);
+	}
+
+	private void start (int size) {
+		this.size = size;
+		numColumns = 0;
+		for (int col = 0; col < values.length; col++) {
+			values[col] = -1;
+			if (ruleValues[col] != -1) {
+				columns[numColumns++] = col;
+			}
+		}
+		started = false;
+		done = size < 0 || size > numColumns;
+	}
+
+	/**
+	 * Moves to the next sub-rule. Returns false once all have been visited.
+	 */
+	public boolean next () {
+		if (done) {
+			return false;
+		}
+		if (!started) {
+			started = true;
+			if (numColumns <= MAX_MASK_COLUMNS) {
+				subset = (1L << size) - 1;
+				setColumns(subset);
+			} else {
+				for (int i = 0; i < size; i++) {
+					positions[i] = i;
+					values[columns[i]] = ruleValues[columns[i]];
+				}
+			}
+			return true;
+		}
+		if (size == 0) {
+			done = true;
+			return false;
+		}
+		if (numColumns <= MAX_MASK_COLUMNS) {
+			final long lowest = subset & -subset;
+			final long ripple = subset + lowest;
+			final long nextSubset = (((ripple ^ subset) >>> 2) / lowest) | ripple;
+			if ((nextSubset >>> numColumns) != 0) {
+				done = true;
+				return false;
+			}
+			setColumns(subset ^ nextSubset);
+			subset = nextSubset;
+			return true;
+		}
+		int i = size - 1;
+		while (i >= 0 && positions[i] == numColumns - size + i) {
+			i--;
+		}
+		if (i < 0) {
+			done = true;
+			return false;
+		}
+		for (int j = i; j < size; j++) {
+			values[columns[positions[j]]] = -1;
+		}
+		positions[i]++;
+		for (int j = i + 1; j < size; j++) {
+			positions[j] = positions[j - 1] + 1;
+		}
+		for (int j = i; j < size; j++) {
+			values[columns[positions[j]]] = ruleValues[columns[positions[j]]];
+		}
+		return true;
+	}
+
+	/**
+	 * Flips the columns at the given positions between star and the rule's value.
+	 */
+	private void setColumns (long changed) {
+		while (changed != 0) {
+			final int col = columns[Long.numberOfTrailingZeros(changed)];
+			values[col] = values[col] == -1 ? ruleValues[col] : -1;
+			changed &= changed - 1;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package solvers;
+
+import dataextraction.TableInfo;
+
+/**
+ * Walks the super-rules of a rule that have one more non-star value, in place: values is the rule with a single star
+ * column col set to val. With a tuple given, only the tuple's value is tried in each star column, which gives the
+ * one-value extensions of the rule that still cover the tuple.
+ * 
+ * Usage: reset(...), then while (next()) { ... values, col, val ... }. values must not be modified by the caller.
+ */
+public class SuperRuleEnumerator {
+	public final int[] values; // Current super-rule, -1 for stars.
+	public int col; // Column added to the rule.
+	public int val;
+	final int[] cardinality; // Number of values of each column.
+	int[] tuple;
+
+	public SuperRuleEnumerator (TableInfo table) {
+		final int length = table.dictionary.size();
+		values = new int[length];
+		cardinality = new int[length];
+		for (int col = 0; col < length; col++) {
+			cardinality[col] = table.dictionary.get(col).size();
+		}
+	}
+
+	public void reset (Rule rule) {
+		for (int col = 0; col < values.length; col++) {
+			values[col] = rule.get(col);
+		}
+		start(null);
+	}
+
+	public void reset (int[] ruleValues) {
+		System.arraycopy(ruleValues, 0, values, 0, values.length);
+		start(null);
+	}
+
+	/**
+	 * Only visits super-rules that are sub-rules of tuple. ruleValues must be a sub-rule of tuple.
+	 */
+	public void reset (int[] ruleValues, int[] tuple) {
+		System.arraycopy(ruleValues, 0, values, 0, values.length);
+		start(tuple);
+	}
+
+	private void start (int[] tuple) {
+		this.tuple = tuple;
+		col = -1;
+		val = 0;
+	}
+
+	/**
+	 * Moves to the next super-rule. Returns false once all have been visited.
+	 */
+	public boolean next () {
+		if (col >= 0 && col < values.length) {
+			if (tuple == null && val + 1 < cardinality[col]) {
+				values[col] = ++val;
+				return true;
+			}
+			values[col] = -1;
+		}
+		for (col++; col < values.length; col++) {
+			if (values[col] == -1 && (tuple != null || cardinality[col] > 0)) {
+				val = tuple == null ? 0 : tuple[col];
+				values[col] = val;
+				return true;
+			}
+		}
+		return false;
+	}
+}
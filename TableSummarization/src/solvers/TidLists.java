@@ -0,0 +1,167 @@
+package solvers;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import dataextraction.TableInfo;
+
+/**
+ * Covering rows (tid-lists) of the candidates of a CandidateTable, for counting candidates without passes over the table,
+ * as in Eclat. The rows of every single value are listed in one pass, and a candidate's rows are those of its parent
+ * intersected with those of the value it adds to the parent. A candidate keeps either its rows, or (dEclat's diffset) the
+ * rows of its parent that it does not cover, whichever is shorter, and diffsets are expanded from the parent's rows when
+ * needed. Lists are of increasing rows, and the rows of a compressed table are weighted by their multiplicities.
+ */
+public class TidLists {
+	final int[] columnOffset; // Value val of column col is at columnOffset[col] + val in valueRows.
+	final int[][] valueRows;
+	final int[] rowScore; // Best solution score covering each row, 0 if none does, shared with the SolutionCoverage.
+	final int[] multiplicity; // The table's multiplicities, null if it is not compressed.
+	int[][] rows; // Rows of each candidate, or rows of its parent it does not cover if diffset is set.
+	boolean[] diffset;
+
+	public TidLists (TableInfo table, Set<Rule> solution) {
+		this(table, new SolutionCoverage(table, solution));
+	}
+
+	public TidLists (TableInfo table, SolutionCoverage coverage) {
+		final int length = table.dictionary.size();
+		final int numRows = table.numRows();
+		columnOffset = new int[length + 1];
+		for (int col = 0; col < length; col++) {
+			columnOffset[col + 1] = columnOffset[col] + table.dictionary.get(col).size();
+		}
+		final int[] valueCounts = new int[columnOffset[length]];
+		rowScore = coverage.rowScore;
+		multiplicity = table.multiplicity;
+		final int[] tuple = new int[length];
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
+			for (int col = 0; col < length; col++) {
+				valueCounts[columnOffset[col] + tuple[col]]++;
+			}
+		}
+		valueRows = new int[valueCounts.length][];
+		for (int v = 0; v < valueCounts.length; v++) {
+			valueRows[v] = new int[valueCounts[v]];
+		}
+		Arrays.fill(valueCounts, 0);
+		for (int row = 0; row < numRows; row++) {
+			table.fillRow(row, tuple);
+			for (int col = 0; col < length; col++) {
+				final int v = columnOffset[col] + tuple[col];
+				valueRows[v][valueCounts[v]++] = row;
+			}
+		}
+		rows = new int[1024][];
+		diffset = new boolean[1024];
+	}
+
+	/**
+	 * Rows covered by candidate id, which must have been counted here, or be a single value rule.
+	 */
+	int[] rows (CandidateTable lattice, int id) {
+		if (id < rows.length && rows[id] != null) {
+			return diffset[id] ? minus(rows(lattice, lattice.parent[id]), rows[id]) : rows[id];
+		}
+		return intersectValues(lattice, id);
+	}
+
+	/**
+	 * Rows having all the values of candidate id.
+	 */
+	private int[] intersectValues (CandidateTable lattice, int id) {
+		int[] covered = null;
+		for (int col = 0; col < lattice.length(); col++) {
+			final int val = lattice.get(id, col);
+			if (val != -1) {
+				final int[] rowsOfValue = valueRows[columnOffset[col] + val];
+				covered = covered == null ? rowsOfValue : intersect(covered, rowsOfValue);
+			}
+		}
+		return covered;
+	}
+
+	/**
+	 * Counts candidate id from its parent's rows (or, if it has none, from its values' rows), and sets its count and
+	 * marginal values.
+	 */
+	public void count (CandidateTable lattice, int id) {
+		final int parent = lattice.parent[id];
+		int[] parentRows = null;
+		int[] covered;
+		if (parent >= 0) {
+			parentRows = rows(lattice, parent);
+			int added = 0;
+			while (lattice.get(id, added) == -1 || lattice.get(parent, added) != -1) {
+				added++;
+			}
+			covered = intersect(parentRows, valueRows[columnOffset[added] + lattice.get(id, added)]);
+		} else {
+			covered = intersectValues(lattice, id);
+		}
+		final int score = lattice.score[id];
+		int count = covered.length;
+		int marginalValue = 0;
+		if (multiplicity == null) {
+			for (int row : covered) {
+				marginalValue += score - Math.min(score, rowScore[row]);
+			}
+		} else {
+			count = 0;
+			for (int row : covered) {
+				count += multiplicity[row];
+				marginalValue += multiplicity[row] * (score - Math.min(score, rowScore[row]));
+			}
+		}
+		lattice.count[id] = count;
+		lattice.minMarginalValue[id] = lattice.maxMarginalValue[id] = marginalValue;
+		lattice.counted[id] = true;
+
+		if (id >= rows.length) {
+			final int capacity = Math.max(2 * rows.length, id + 1);
+			rows = Arrays.copyOf(rows, capacity);
+			diffset = Arrays.copyOf(diffset, capacity);
+		}
+		if (parentRows != null && parentRows.length - covered.length < covered.length) {
+			rows[id] = minus(parentRows, covered);
+			diffset[id] = true;
+		} else {
+			rows[id] = covered;
+		}
+	}
+
+	static int[] intersect (int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Rows of a that are not in b.
+	 */
+	static int[] minus (int[] a, int[] b) {
+		int[] result = new int[a.length];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length; i++) {
+			while (j < b.length && b[j] < a[i]) {
+				j++;
+			}
+			if (j == b.length || b[j] != a[i]) {
+				result[n++] = a[i];
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+}
@@ -124,7 +124,7 @@ public class Experiments {
 			}
 			Long totalNumTuples = USCensus1990.updateRuleCounts(table, columns, candidateRules);
 			for (Rule rule : candidateRules) {
-				Integer scaledCount = (int)(1.0 * rule.count * table.contents.size() / (totalNumTuples + 0.0));
+				Integer scaledCount = (int)(1.0 * rule.count * table.totalWeight() / (totalNumTuples + 0.0));
 				ruleCounts.put(rule, scaledCount);	
 			}
 			ruleTree.contractRow(emptyRule);